@@ -3,6 +3,7 @@ package org.chronopolis.intake.duracloud;
 import org.chronopolis.intake.duracloud.config.BeanConfig;
 import org.chronopolis.intake.duracloud.scheduled.Bridge;
 import org.chronopolis.intake.duracloud.service.ChronService;
+import org.chronopolis.intake.duracloud.webhook.SnapshotWebhook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
@@ -18,7 +19,10 @@ import org.springframework.context.annotation.ComponentScan;
  * @author shake
  */
 @SpringBootApplication(exclude = {DataSourceAutoConfiguration.class})
-@ComponentScan(basePackageClasses = {Bridge.class, ChronService.class, BeanConfig.class})
+@ComponentScan(basePackageClasses = {Bridge.class,
+        ChronService.class,
+        BeanConfig.class,
+        SnapshotWebhook.class})
 public class Application implements CommandLineRunner {
 
     private final ChronService service;
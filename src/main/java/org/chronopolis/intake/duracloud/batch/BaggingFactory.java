@@ -1,12 +1,24 @@
 package org.chronopolis.intake.duracloud.batch;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.chronopolis.common.storage.BagStagingProperties;
 import org.chronopolis.intake.duracloud.batch.bagging.BaggingTasklet;
+import org.chronopolis.intake.duracloud.batch.bagging.LinkMode;
+import org.chronopolis.intake.duracloud.batch.bagging.LinkProbe;
+import org.chronopolis.intake.duracloud.batch.bagging.ThroughputHistory;
+import org.chronopolis.intake.duracloud.batch.bagging.WriteThrottle;
 import org.chronopolis.intake.duracloud.config.BridgeContext;
 import org.chronopolis.intake.duracloud.config.props.BagProperties;
 import org.chronopolis.intake.duracloud.model.BagData;
 import org.chronopolis.intake.duracloud.notify.Notifier;
 
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Same deal as with DpnFactory
  *
@@ -18,12 +30,74 @@ public class BaggingFactory {
     private final BagProperties bagProperties;
     private final BagStagingProperties stagingProperties;
 
+    /**
+     * Shared by all BaggingTasklets so that bag.write.threads limits the number of bags being
+     * written at once across every snapshot
+     */
+    private final ExecutorService writers;
+
+    /**
+     * The {@link LinkMode} which works for each bridge, by name
+     */
+    private final Map<String, LinkMode> linkModes = new ConcurrentHashMap<>();
+
+    /**
+     * The write throughput of every bag, for estimating how long a snapshot will take to bag
+     */
+    private final ThroughputHistory throughput;
+
+    /**
+     * Limits for writing payload files, shared by all BaggingTasklets
+     */
+    private final WriteThrottle throttle;
+
+    /**
+     * Shared by all BaggingTasklets for checking snapshots before they are bagged
+     */
+    private final ExecutorService preflight;
+
     public BaggingFactory(Notifier notifier,
                           BagProperties bagProperties,
                           BagStagingProperties stagingProperties) {
+        this(notifier, bagProperties, stagingProperties,
+                new WriteThrottle(bagProperties.getThrottle()));
+    }
+
+    public BaggingFactory(Notifier notifier,
+                          BagProperties bagProperties,
+                          BagStagingProperties stagingProperties,
+                          WriteThrottle throttle) {
         this.notifier = notifier;
+        this.throttle = throttle;
         this.bagProperties = bagProperties;
         this.stagingProperties = stagingProperties;
+        this.writers = Executors.newFixedThreadPool(bagProperties.getWrite().getThreads(),
+                new ThreadFactoryBuilder().setNameFormat("bag-writer-%d").build());
+        this.preflight = Executors.newFixedThreadPool(bagProperties.getPreflight().getThreads(),
+                new ThreadFactoryBuilder().setNameFormat("bag-preflight-%d").build());
+        this.throughput = new ThroughputHistory(bagProperties.getEstimate().getThroughput());
+    }
+
+    /**
+     * Shutdown the pools used for writing and checking bags
+     */
+    public void destroy() {
+        writers.shutdownNow();
+        preflight.shutdownNow();
+    }
+
+    /**
+     * Check if payload files can be linked from the snapshots of each bridge into staging
+     *
+     * @param contexts the bridges to check
+     */
+    public void probeLinks(List<BridgeContext> contexts) {
+        if (bagProperties.getLink()) {
+            contexts.forEach(context -> linkModes.put(context.getName(), LinkProbe.probe(
+                    Paths.get(context.getSnapshots()),
+                    Paths.get(stagingProperties.getPosix().getPath()),
+                    bagProperties.getReflink())));
+        }
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -33,6 +107,25 @@ public class BaggingFactory {
                 context,
                 bagProperties,
                 stagingProperties,
-                notifier);
+                notifier,
+                writers)
+                .withLinkMode(linkModes.getOrDefault(context.getName(), LinkMode.COPY))
+                .withThroughput(throughput)
+                .withThrottle(throttle)
+                .withPreflight(preflight);
+    }
+
+    /**
+     * Notify that bagging a snapshot failed with an error which escaped its
+     * {@link BaggingTasklet}
+     *
+     * @param snapshotId the id of the snapshot
+     * @param cause      the error which stopped the bagging
+     */
+    public void notifyFailure(String snapshotId, Throwable cause) {
+        String title = "Snapshot Error %s: Unable to bag";
+        String message = "Snapshot " + snapshotId + " could not be bagged and will be retried "
+                + "on the next poll: " + cause;
+        notifier.notify(String.format(title, snapshotId), message);
     }
 }
@@ -14,6 +14,7 @@ import org.chronopolis.rest.api.FileService;
 import org.chronopolis.rest.api.StagingService;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Same as DpnFactory
@@ -61,6 +62,22 @@ public class ChronFactory {
                 context);
     }
 
+    public ChronopolisIngest ingest(BagData data,
+                                    List<BagReceipt> receipts,
+                                    BridgeContext context,
+                                    Executor csvExecutor) {
+        return new ChronopolisIngest(data,
+                receipts,
+                bags,
+                staging,
+                settings,
+                stagingProperties,
+                files,
+                depositors,
+                context,
+                csvExecutor);
+    }
+
     public ChronopolisCheck check(BagData data, List<BagReceipt> receipts, BridgeContext context) {
         return new ChronopolisCheck(data, receipts, context, depositors, cleaner);
     }
@@ -0,0 +1,176 @@
+package org.chronopolis.intake.duracloud.batch;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.chronopolis.intake.duracloud.config.props.JobProperties;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Order the jobs submitted to a {@link ThreadPoolExecutor} based on the size of the snapshot
+ * they are for
+ * <p>
+ * In SJF mode each job is given a deadline of the time it was submitted plus a delay based on
+ * the size of its snapshot, and the job with the earliest deadline is run first. Because the
+ * delay is capped at {@link JobProperties.Scheduling#getMaxDelay()}, a large snapshot will only
+ * be passed over by smaller snapshots which were submitted less than that long after it.
+ * <p>
+ * The time each job spends waiting in the queue is logged by size class.
+ *
+ * @author shake
+ */
+public class JobScheduler {
+
+    private static final long KB = 1024L;
+    private static final long GB = KB * KB * KB;
+    private static final long TB = GB * KB;
+
+    private final Logger metrics = LoggerFactory.getLogger("metrics");
+
+    private final ThreadPoolExecutor pool;
+    private final JobProperties.Scheduling scheduling;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public JobScheduler(ThreadPoolExecutor pool, JobProperties.Scheduling scheduling) {
+        this.pool = pool;
+        this.scheduling = scheduling;
+    }
+
+    /**
+     * Create a fixed size pool with a work queue which can be used for the given scheduling mode
+     *
+     * @param pool       the size of the pool and its queue
+     * @param scheduling the scheduling configuration
+     * @return the {@link ThreadPoolExecutor}
+     */
+    public static ThreadPoolExecutor pool(JobProperties.Pool pool,
+                                          JobProperties.Scheduling scheduling) {
+        int threads = pool.getThreads();
+        BlockingQueue<Runnable> queue;
+        if (scheduling.getMode() == JobProperties.Mode.SJF) {
+            queue = new BoundedPriorityQueue(pool.getQueue());
+        } else if (pool.getQueue() > 0) {
+            queue = new LinkedBlockingQueue<>(pool.getQueue());
+        } else {
+            queue = new LinkedBlockingQueue<>();
+        }
+        return new ThreadPoolExecutor(threads, threads, 0, MILLISECONDS, queue);
+    }
+
+    /**
+     * Get an {@link Executor} which submits jobs for a snapshot to the pool
+     *
+     * @param details the {@link SnapshotDetails} of the snapshot which jobs are being run for
+     * @return the {@link Executor}
+     */
+    public Executor executor(SnapshotDetails details) {
+        final long size = parse(details == null ? null : details.getTotalSizeInBytes());
+        final long count = parse(details == null ? null : details.getContentItemCount());
+        return runnable -> pool.execute(new Job(runnable, size, deadline(size, count)));
+    }
+
+    /**
+     * Calculate the time a job should be run by
+     *
+     * @param size  the size of the snapshot in bytes
+     * @param count the number of files in the snapshot
+     * @return the deadline in milliseconds
+     */
+    @VisibleForTesting
+    long deadline(long size, long count) {
+        long now = System.currentTimeMillis();
+        if (scheduling.getMode() == JobProperties.Mode.FIFO) {
+            return now;
+        }
+
+        long delay = TimeUnit.SECONDS.toMillis(size / scheduling.getAgingBytes()
+                + count / scheduling.getAgingFiles());
+        return now + Math.min(delay, scheduling.getMaxDelay().toMillis());
+    }
+
+    private long parse(String value) {
+        long parsed = 0;
+        try {
+            if (value != null) {
+                parsed = Long.parseLong(value);
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        return parsed;
+    }
+
+    @VisibleForTesting
+    static String sizeClass(long size) {
+        String sizeClass;
+        if (size < GB) {
+            sizeClass = "small";
+        } else if (size < 100 * GB) {
+            sizeClass = "medium";
+        } else if (size < TB) {
+            sizeClass = "large";
+        } else {
+            sizeClass = "huge";
+        }
+        return sizeClass;
+    }
+
+    /**
+     * A {@link PriorityBlockingQueue} which refuses new elements once it holds {@code capacity}
+     * elements, so that the pool rejects work the same way it would with a bounded FIFO queue
+     */
+    private static class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+        private final int capacity;
+
+        private BoundedPriorityQueue(int capacity) {
+            this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable runnable) {
+            return size() < capacity && super.offer(runnable);
+        }
+    }
+
+    /**
+     * A job in the queue which is ordered by its deadline, then by the order it was submitted in
+     */
+    private class Job implements Runnable, Comparable<Job> {
+        private final Runnable delegate;
+        private final long size;
+        private final long deadline;
+        private final long order;
+        private final long submitted;
+
+        private Job(Runnable delegate, long size, long deadline) {
+            this.delegate = delegate;
+            this.size = size;
+            this.deadline = deadline;
+            this.order = sequence.getAndIncrement();
+            this.submitted = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted);
+            metrics.info("queue,{},{},{}", sizeClass(size), size, waited);
+            delegate.run();
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int compare = Long.compare(deadline, other.deadline);
+            return compare != 0 ? compare : Long.compare(order, other.order);
+        }
+    }
+
+}
@@ -1,24 +1,37 @@
 package org.chronopolis.intake.duracloud.batch;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.DataCollector;
+import org.chronopolis.intake.duracloud.PropertiesDataCollector;
 import org.chronopolis.intake.duracloud.batch.bagging.BaggingTasklet;
 import org.chronopolis.intake.duracloud.batch.check.Checker;
 import org.chronopolis.intake.duracloud.batch.check.DepositorCheck;
 import org.chronopolis.intake.duracloud.batch.ingest.ChronopolisIngest;
+import org.chronopolis.intake.duracloud.batch.journal.JobJournal;
+import org.chronopolis.intake.duracloud.batch.journal.JobStage;
+import org.chronopolis.intake.duracloud.batch.journal.JournalEntry;
+import org.chronopolis.intake.duracloud.batch.journal.NullJournal;
 import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.JobProperties;
 import org.chronopolis.intake.duracloud.model.BagData;
 import org.chronopolis.intake.duracloud.model.BagReceipt;
 import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
-
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Start a Tasklet based on the type of request that comes in
@@ -33,13 +46,18 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
  */
 public class SnapshotJobManager {
     private final Logger log = LoggerFactory.getLogger(SnapshotJobManager.class);
+    private final Logger metrics = LoggerFactory.getLogger("metrics");
 
     private final ChronFactory chronFactory;
     private final BaggingFactory baggingFactory;
     private final DepositorCheck depositorCheck;
+    private final JobJournal journal;
 
     private final ThreadPoolExecutor longIo;
     private final ThreadPoolExecutor shortIo;
+    private final JobScheduler scheduler;
+    private final RejectionCounter longIoRejected = new RejectionCounter();
+    private final RejectionCounter shortIoRejected = new RejectionCounter();
     private final ConcurrentSkipListSet<String> processing;
 
     /**
@@ -52,10 +70,27 @@ public class SnapshotJobManager {
     public SnapshotJobManager(ChronFactory chronFactory,
                               BaggingFactory baggingFactory,
                               DepositorCheck depositorCheck) {
-        this(chronFactory, baggingFactory, depositorCheck,
+        this(chronFactory, baggingFactory, depositorCheck, new NullJournal(), new JobProperties());
+    }
+
+    /**
+     * Create a SnapshotJobManager which records the progress of each snapshot in a journal
+     *
+     * @param chronFactory   the {@link ChronFactory} for creating Chronopolis tasks
+     * @param baggingFactory the {@link BaggingFactory} for creating Bagging tasks
+     * @param depositorCheck the {@link DepositorCheck} for validating Depositors exist
+     * @param journal        the {@link JobJournal} to record the progress of snapshots in
+     * @param jobProperties  the {@link JobProperties} for configuring how jobs are run
+     */
+    public SnapshotJobManager(ChronFactory chronFactory,
+                              BaggingFactory baggingFactory,
+                              DepositorCheck depositorCheck,
+                              JobJournal journal,
+                              JobProperties jobProperties) {
+        this(chronFactory, baggingFactory, depositorCheck, journal, jobProperties,
                 new ConcurrentSkipListSet<>(),
-                new ThreadPoolExecutor(4, 4, 0, MILLISECONDS, new LinkedBlockingQueue<>()),
-                new ThreadPoolExecutor(4, 4, 0, MILLISECONDS, new LinkedBlockingQueue<>()));
+                JobScheduler.pool(jobProperties.getLongIo(), jobProperties.getScheduling()),
+                JobScheduler.pool(jobProperties.getShortIo(), new JobProperties.Scheduling()));
     }
 
     @VisibleForTesting
@@ -65,13 +100,31 @@ public class SnapshotJobManager {
                        ConcurrentSkipListSet<String> processing,
                        ThreadPoolExecutor longIo,
                        ThreadPoolExecutor shortIo) {
+        this(chronFactory, baggingFactory, depositorCheck, new NullJournal(), new JobProperties(),
+                processing, longIo, shortIo);
+    }
+
+    @VisibleForTesting
+    SnapshotJobManager(ChronFactory chronFactory,
+                       BaggingFactory baggingFactory,
+                       DepositorCheck depositorCheck,
+                       JobJournal journal,
+                       JobProperties jobProperties,
+                       ConcurrentSkipListSet<String> processing,
+                       ThreadPoolExecutor longIo,
+                       ThreadPoolExecutor shortIo) {
         this.chronFactory = chronFactory;
         this.baggingFactory = baggingFactory;
         this.depositorCheck = depositorCheck;
+        this.journal = journal;
 
         this.longIo = longIo;
         this.shortIo = shortIo;
         this.processing = processing;
+        this.scheduler = new JobScheduler(longIo, jobProperties.getScheduling());
+
+        longIo.setRejectedExecutionHandler(longIoRejected);
+        shortIo.setRejectedExecutionHandler(shortIoRejected);
     }
 
     /**
@@ -82,24 +135,147 @@ public class SnapshotJobManager {
         log.debug("Shutting down thread pools");
         longIo.shutdownNow();
         shortIo.shutdownNow();
+        journal.close();
+    }
+
+    /**
+     * Log the depth of each work queue and the number of jobs which have been rejected
+     */
+    @Scheduled(fixedRateString = "${jobs.metrics:60000}")
+    public void logQueueMetrics() {
+        metrics.info("jobs,longIo,{},{},{}",
+                longIo.getQueue().size(), longIo.getActiveCount(), longIoRejected.getRejected());
+        metrics.info("jobs,shortIo,{},{},{}",
+                shortIo.getQueue().size(), shortIo.getActiveCount(), shortIoRejected.getRejected());
+    }
+
+    public int getLongIoQueueDepth() {
+        return longIo.getQueue().size();
+    }
+
+    public int getShortIoQueueDepth() {
+        return shortIo.getQueue().size();
+    }
+
+    public long getLongIoRejected() {
+        return longIoRejected.getRejected();
+    }
+
+    public long getShortIoRejected() {
+        return shortIoRejected.getRejected();
+    }
+
+    /**
+     * Resume any snapshots which were still being worked on when we last shut down
+     * <p>
+     * Stages which were completed are not run again: a snapshot which finished bagging goes
+     * straight to ingestion, and one which finished ingestion only needs to be checked. A
+     * snapshot which was in the middle of bagging is bagged again from the start.
+     *
+     * @param contexts the Bridges which snapshots can belong to
+     */
+    public void resume(List<BridgeContext> contexts) {
+        Map<String, BridgeContext> byName = contexts.stream()
+                .collect(Collectors.toMap(BridgeContext::getName, Function.identity()));
+
+        for (JournalEntry entry : journal.pending()) {
+            final String snapshotId = entry.getSnapshotId();
+            BridgeContext context = byName.get(entry.getBridge());
+            if (context == null) {
+                log.warn("{} - unable to resume, no bridge named {}",
+                        snapshotId, entry.getBridge());
+                continue;
+            }
+
+            BagData data;
+            DataCollector collector = new PropertiesDataCollector(context);
+            try {
+                data = collector.collectBagData(snapshotId);
+            } catch (IOException e) {
+                log.warn("{} - unable to resume, could not read snapshot properties",
+                        snapshotId, e);
+                journal.record(snapshotId, context, JobStage.DONE, null, ImmutableList.of());
+                continue;
+            }
+
+            log.info("{} - resuming from {}", snapshotId, entry.getStage());
+            switch (entry.getStage()) {
+                case QUEUED:
+                case BAGGING:
+                    bagSnapshot(data, entry.getDetails(), context);
+                    break;
+                case BAGGED:
+                case INGESTING:
+                    replicate(data, entry.getDetails(), entry.getReceipts(), context, true);
+                    break;
+                case CHECKING:
+                    replicate(data, entry.getDetails(), entry.getReceipts(), context, false);
+                    break;
+                default:
+                    break;
+            }
+        }
     }
 
     /**
      * Start (or queue) bagging for a snapshot
+     * <p>
+     * Once the snapshot has been bagged and the Bridge has been updated, ingestion is started
+     * right away rather than waiting for the Bridge to be polled again.
+     * <p>
+     * If the longIo queue is full the snapshot is refused and is left for the next time the
+     * Bridge is polled.
      *
      * @param data    additional details about the snapshot
+     * @param details the {@link SnapshotDetails} containing snapshot information
      * @param context the Bridge which is currently being operated on
+     * @return false if the snapshot was refused because the longIo queue is full
      */
-    public void bagSnapshot(BagData data, BridgeContext context) {
+    public boolean bagSnapshot(BagData data, SnapshotDetails details, BridgeContext context) {
         final String snapshotId = data.snapshotId();
 
         // good enough for now to check that we aren't processing a snapshot multiple times
-        if (processing.add(snapshotId)) {
-            BaggingTasklet bagger = baggingFactory.baggingTasklet(data, context);
+        if (!processing.add(snapshotId)) {
+            return true;
+        }
 
-            CompletableFuture.runAsync(bagger, longIo)
-                    .whenComplete((v, t) -> processing.remove(snapshotId));
+        BaggingTasklet bagger = baggingFactory.baggingTasklet(data, context);
+        bagger.withDetails(details);
+        journal.record(snapshotId, context, JobStage.QUEUED, details, ImmutableList.of());
+
+        try {
+            CompletableFuture.supplyAsync(() -> {
+                journal.record(snapshotId, context, JobStage.BAGGING, details,
+                        ImmutableList.of());
+                return bagger.get();
+            }, scheduler.executor(details)).whenComplete((receipts, t) -> {
+                // a failed bagging attempt will be picked up again when the Bridge is polled
+                if (t != null) {
+                    Throwable cause = unwrap(t);
+                    log.error("{} - error while bagging", snapshotId, cause);
+                    baggingFactory.notifyFailure(snapshotId, cause);
+                }
+
+                if (t == null && !receipts.isEmpty()) {
+                    journal.record(snapshotId, context, JobStage.BAGGED, details, receipts);
+                } else {
+                    journal.record(snapshotId, context, JobStage.DONE, details, ImmutableList.of());
+                }
+                processing.remove(snapshotId);
+            }).thenAccept(receipts -> {
+                if (!receipts.isEmpty()) {
+                    log.info("{} - bagging complete, starting ingest", snapshotId);
+                    startReplicationTasklet(data, details, receipts, context);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.info("{} - longIo queue is full, leaving snapshot for the next poll", snapshotId);
+            journal.record(snapshotId, context, JobStage.DONE, details, ImmutableList.of());
+            processing.remove(snapshotId);
+            return false;
         }
+
+        return true;
     }
 
     /**
@@ -112,30 +288,158 @@ public class SnapshotJobManager {
      * @param details       the {@link SnapshotDetails} containing snapshot information
      * @param receipts      the bag receipts for the snapshot
      * @param bridgeContext the Bridge which is currently being operated on
+     * @return false if the snapshot was refused because the shortIo queue is full
+     */
+    public boolean startReplicationTasklet(final BagData data,
+                                           final SnapshotDetails details,
+                                           final List<BagReceipt> receipts,
+                                           final BridgeContext bridgeContext) {
+        return replicate(data, details, receipts, bridgeContext, true);
+    }
+
+    /**
+     * Run ingestion (if needed) and then check the replication status of a snapshot
+     *
+     * @param data          additional details about the snapshot
+     * @param details       the {@link SnapshotDetails} containing snapshot information
+     * @param receipts      the bag receipts for the snapshot
+     * @param bridgeContext the Bridge which is currently being operated on
+     * @param ingest        true if the snapshot needs to be ingested before checking
+     * @return false if the snapshot was refused because the shortIo queue is full
      */
-    public void startReplicationTasklet(final BagData data,
-                                        final SnapshotDetails details,
-                                        final List<BagReceipt> receipts,
-                                        final BridgeContext bridgeContext) {
+    private boolean replicate(final BagData data,
+                              final SnapshotDetails details,
+                              final List<BagReceipt> receipts,
+                              final BridgeContext bridgeContext,
+                              final boolean ingest) {
         final String snapshotId = data.snapshotId();
 
         // If we're pushing to dpn, let's make the differences here
         // -> Always push to chronopolis so we have a separate tasklet (NotifyChron or something)
         // -> If we're pushing to dpn, do a DPNReplication Tasklet
         // -> Else have a Tasklet for checking status in chronopolis
-        if (!depositorCheck.test(data, bridgeContext) || !processing.add(snapshotId)) {
-            return;
+        try {
+            CompletableFuture.supplyAsync(() -> depositorCheck.test(data, bridgeContext), shortIo)
+                    .thenAccept(valid -> {
+                        if (!valid) {
+                            journal.record(snapshotId, bridgeContext,
+                                    JobStage.DONE, details, ImmutableList.of());
+                        } else if (processing.add(snapshotId)) {
+                            ingestAndCheck(data, details, receipts, bridgeContext, ingest);
+                        }
+                    })
+                    .whenComplete((v, t) -> {
+                        if (t != null) {
+                            logDeferred(snapshotId, t);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            log.info("{} - shortIo queue is full, leaving snapshot for the next poll", snapshotId);
+            return false;
         }
 
+        return true;
+    }
+
+    /**
+     * Chain together the ingest and check for a snapshot
+     * <p>
+     * Ingestion and checking are mostly requests to the Chronopolis Ingest Server and Bridge, so
+     * they run on the shortIo pool. Only the file csv generation, which reads the entire bag, is
+     * run on the longIo pool. Ingestion is asynchronous, so no shortIo thread is held while its
+     * requests are in flight.
+     *
+     * @param data          additional details about the snapshot
+     * @param details       the {@link SnapshotDetails} containing snapshot information
+     * @param receipts      the bag receipts for the snapshot
+     * @param bridgeContext the Bridge which is currently being operated on
+     * @param ingest        true if the snapshot needs to be ingested before checking
+     */
+    private void ingestAndCheck(final BagData data,
+                                final SnapshotDetails details,
+                                final List<BagReceipt> receipts,
+                                final BridgeContext bridgeContext,
+                                final boolean ingest) {
+        final String snapshotId = data.snapshotId();
+
         Checker check;
         CompletableFuture<Void> ingestFuture;
-        ChronopolisIngest chronIngest = chronFactory.ingest(data, receipts, bridgeContext);
 
-        check = chronFactory.check(data, receipts, bridgeContext);
-        ingestFuture = CompletableFuture.runAsync(chronIngest, longIo);
+        try {
+            check = chronFactory.check(data, receipts, bridgeContext);
+            if (ingest) {
+                ChronopolisIngest chronIngest = chronFactory.ingest(data, receipts, bridgeContext,
+                        scheduler.executor(details));
+                journal.record(snapshotId, bridgeContext, JobStage.INGESTING, details, receipts);
+                // the ingest only starts its http calls here, it does not wait on them
+                ingestFuture = CompletableFuture.supplyAsync(chronIngest::ingest, shortIo)
+                        .thenCompose(Function.identity());
+            } else {
+                ingestFuture = CompletableFuture.completedFuture(null);
+            }
+        } catch (RuntimeException e) {
+            // includes the RejectedExecutionException from a full shortIo queue
+            logDeferred(snapshotId, e);
+            journal.record(snapshotId, bridgeContext, JobStage.DONE, details, ImmutableList.of());
+            processing.remove(snapshotId);
+            return;
+        }
+
+        ingestFuture.thenRun(() -> journal.record(snapshotId, bridgeContext,
+                JobStage.CHECKING, details, receipts))
+                .thenRunAsync(check, shortIo)
+                .whenComplete((v, t) -> {
+                    if (t != null) {
+                        logDeferred(snapshotId, t);
+                    }
+                    journal.record(snapshotId, bridgeContext,
+                            JobStage.DONE, details, ImmutableList.of());
+                    processing.remove(snapshotId);
+                });
+    }
+
+    /**
+     * Log why a snapshot was dropped from an asynchronous stage so that it is clear it will be
+     * picked up again on the next poll
+     *
+     * @param snapshotId the id of the snapshot
+     * @param t          the throwable the stage completed with
+     */
+    private void logDeferred(String snapshotId, Throwable t) {
+        Throwable cause = unwrap(t);
+        if (cause instanceof RejectedExecutionException) {
+            log.info("{} - shortIo queue is full, leaving snapshot for the next poll", snapshotId);
+        } else {
+            log.error("{} - error during replication, leaving snapshot for the next poll",
+                    snapshotId, cause);
+        }
+    }
 
-        ingestFuture.thenRunAsync(check, longIo)
-                .whenComplete((v, t) -> processing.remove(snapshotId));
+    /**
+     * Get the error which caused a {@link CompletableFuture} to fail
+     *
+     * @param t the throwable a dependent stage completed with
+     * @return the cause of a {@link CompletionException}, otherwise the throwable itself
+     */
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    /**
+     * Count the jobs which a pool rejects before aborting them
+     */
+    private static class RejectionCounter extends ThreadPoolExecutor.AbortPolicy {
+        private final AtomicLong rejected = new AtomicLong();
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            rejected.incrementAndGet();
+            super.rejectedExecution(runnable, executor);
+        }
+
+        private long getRejected() {
+            return rejected.get();
+        }
     }
 
 }
@@ -0,0 +1,131 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableList;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The planned bags for a snapshot and what it will take to write them, from a dry run of the
+ * {@link BaggingTasklet}
+ *
+ * @author shake
+ */
+public class BagEstimate {
+
+    private final String snapshotId;
+    private final List<PlannedBag> bags;
+    private final long files;
+    private final long payloadBytes;
+    private final long stagingBytes;
+    private final long rejected;
+    private final long bytesPerSecond;
+    private final Duration duration;
+
+    public BagEstimate(String snapshotId,
+                       List<PlannedBag> bags,
+                       long files,
+                       long payloadBytes,
+                       long stagingBytes,
+                       long rejected,
+                       long bytesPerSecond,
+                       Duration duration) {
+        this.snapshotId = snapshotId;
+        this.bags = ImmutableList.copyOf(bags);
+        this.files = files;
+        this.payloadBytes = payloadBytes;
+        this.stagingBytes = stagingBytes;
+        this.rejected = rejected;
+        this.bytesPerSecond = bytesPerSecond;
+        this.duration = duration;
+    }
+
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public List<PlannedBag> getBags() {
+        return bags;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * @return the bytes which will be written to staging, including tag files
+     */
+    public long getStagingBytes() {
+        return stagingBytes;
+    }
+
+    /**
+     * @return the number of manifest entries which could not be bagged
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the write throughput, per bag, the duration was estimated with
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append(snapshotId).append(": ")
+                .append(bags.size()).append(" bags, ")
+                .append(files).append(" files, ")
+                .append(payloadBytes).append(" payload bytes, ")
+                .append(stagingBytes).append(" staging bytes, ")
+                .append(rejected).append(" rejected, ")
+                .append("estimated ").append(duration)
+                .append(" at ").append(bytesPerSecond).append(" B/s");
+        for (PlannedBag bag : bags) {
+            builder.append(System.lineSeparator())
+                    .append("  bag ").append(bag.getIndex()).append(": ")
+                    .append(bag.getFiles()).append(" files, ")
+                    .append(bag.getSize()).append(" bytes");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A single bag which would be written
+     */
+    public static class PlannedBag {
+        private final int index;
+        private final long size;
+        private final long files;
+
+        public PlannedBag(int index, long size, long files) {
+            this.index = index;
+            this.size = size;
+            this.files = files;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+    }
+
+}
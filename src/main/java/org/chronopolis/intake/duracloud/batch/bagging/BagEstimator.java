@@ -0,0 +1,196 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import org.chronopolis.bag.core.Bag;
+import org.chronopolis.bag.core.PayloadFile;
+import org.chronopolis.bag.core.PayloadManifest;
+import org.chronopolis.bag.partitioner.Bagger;
+import org.chronopolis.bag.partitioner.BaggingResult;
+import org.chronopolis.intake.duracloud.config.props.BagProperties;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plan the bags for a snapshot without writing any of them
+ * <p>
+ * The manifest is spilled and merged the same way as when streaming, then partitioned with the
+ * same partitioner the {@link BaggingTasklet} would use: the {@link BalancedPartitioner}, the
+ * {@link StreamingPartitioner} when streaming, or otherwise the {@link Bagger}. The time to write
+ * the bags is estimated from the {@link ThroughputHistory} of previous writes, with
+ * bag.write.parallel bags being written at a time.
+ * <p>
+ * When a snapshot is split into more than one bag, each bag only carries the md5 lines and
+ * content properties for its own files, so those are only counted once for the snapshot.
+ *
+ * @author shake
+ */
+public class BagEstimator {
+
+    /**
+     * Roughly what bagit.txt, bag-info.txt and the tag manifests add to each bag
+     */
+    private static final long TAG_OVERHEAD = 4096;
+    private static final String WORK_SUFFIX = "-estimate";
+
+    private final BagProperties bagProperties;
+    private final ThroughputHistory throughput;
+    private final LinkMode linkMode;
+    private Bagger bagger;
+
+    public BagEstimator(BagProperties bagProperties,
+                        ThroughputHistory throughput,
+                        LinkMode linkMode) {
+        this.bagProperties = bagProperties;
+        this.throughput = throughput;
+        this.linkMode = linkMode;
+    }
+
+    /**
+     * Set the {@link Bagger} used to partition a snapshot when it is not streamed or balanced.
+     * If none is set, the manifest is cut the same way as when streaming.
+     *
+     * @param bagger the Bagger, with its max size already set
+     * @return this
+     */
+    public BagEstimator withBagger(Bagger bagger) {
+        this.bagger = bagger;
+        return this;
+    }
+
+    /**
+     * Estimate the bags for a snapshot
+     *
+     * @param snapshotId   the id of the snapshot
+     * @param snapshotBase the base directory of the snapshot
+     * @param manifest     the manifest of the snapshot
+     * @return the {@link BagEstimate}
+     * @throws IOException if the manifest or snapshot cannot be read
+     */
+    public BagEstimate estimate(String snapshotId, Path snapshotBase, Path manifest)
+            throws IOException {
+        long maxBytes = bagProperties.maxBytes();
+        BagProperties.Streaming streaming = bagProperties.getStreaming();
+        Path work = Paths.get(streaming.getWorkDirectory(), snapshotId + WORK_SUFFIX);
+        try (StreamingPartitioner partitioner = new StreamingPartitioner(snapshotBase,
+                manifest, work, maxBytes, streaming.getRunSize())) {
+            partitioner.spill();
+            CompactManifest compact = partitioner.compact();
+
+            List<BagEstimate.PlannedBag> bags;
+            if (bagProperties.getPartition() == BagProperties.Partition.BALANCED) {
+                bags = balanced(compact);
+            } else if (streaming.getEnabled() || bagger == null) {
+                bags = greedy(compact, maxBytes);
+            } else {
+                bags = bagger(snapshotBase, manifest);
+            }
+
+            // the md5 lines and content properties are split across bags, everything else is
+            // written to each bag
+            long tags = TAG_OVERHEAD
+                    + size(snapshotBase.resolve(BaggingTasklet.SNAPSHOT_COLLECTION_PROPERTIES));
+            long split = size(snapshotBase.resolve(BaggingTasklet.SNAPSHOT_MD5))
+                    + size(snapshotBase.resolve(BaggingTasklet.SNAPSHOT_CONTENT_PROPERTIES));
+            long payload = linkMode == LinkMode.COPY ? compact.getTotalSize() : 0;
+            long staging = payload + size(manifest) + split + bags.size() * tags;
+
+            long bytesPerSecond = throughput.getBytesPerSecond();
+            return new BagEstimate(snapshotId,
+                    bags,
+                    compact.size(),
+                    compact.getTotalSize(),
+                    staging,
+                    partitioner.getRejected().size(),
+                    bytesPerSecond,
+                    duration(bags, bytesPerSecond));
+        }
+    }
+
+    private List<BagEstimate.PlannedBag> balanced(CompactManifest compact) {
+        List<BagEstimate.PlannedBag> bags = new ArrayList<>();
+        BalancedPartitioner partitioner = new BalancedPartitioner(bagProperties.maxBytes(),
+                bagProperties.getWrite().getParallel())
+                .withMaxFiles(bagProperties.getStreaming().getMaxFiles());
+        partitioner.plan(compact).forEach(bin -> bags.add(
+                new BagEstimate.PlannedBag(bin.getIndex(), bin.getSize(), bin.getFiles())));
+        return bags;
+    }
+
+    /**
+     * Cut the manifest in path order the same way the {@link StreamingPartitioner} does
+     */
+    private List<BagEstimate.PlannedBag> greedy(CompactManifest compact, long maxBytes) {
+        List<BagEstimate.PlannedBag> bags = new ArrayList<>();
+        long size = 0;
+        long files = 0;
+        long maxFiles = Math.max(1, bagProperties.getStreaming().getMaxFiles());
+        for (CompactManifest.Entry entry : compact) {
+            if (files > 0 && (files >= maxFiles || size + entry.getSize() > maxBytes)) {
+                bags.add(new BagEstimate.PlannedBag(bags.size(), size, files));
+                size = 0;
+                files = 0;
+            }
+            size += entry.getSize();
+            ++files;
+        }
+
+        if (files > 0) {
+            bags.add(new BagEstimate.PlannedBag(bags.size(), size, files));
+        }
+        return bags;
+    }
+
+    /**
+     * Partition the manifest with the {@link Bagger}, which needs the whole manifest in memory the
+     * same as when the bags are written
+     */
+    private List<BagEstimate.PlannedBag> bagger(Path snapshotBase, Path manifest)
+            throws IOException {
+        PayloadManifest payload;
+        try (InputStream input = Files.newInputStream(manifest)) {
+            payload = PayloadManifest.loadFromStream(input, snapshotBase);
+        }
+
+        List<BagEstimate.PlannedBag> bags = new ArrayList<>();
+        BaggingResult result = bagger.withPayloadManifest(payload).partition();
+        if (result.isSuccess()) {
+            for (Bag bag : result.getBags()) {
+                long size = 0;
+                for (PayloadFile file : bag.getManifest().getFiles().values()) {
+                    size += file.getSize();
+                }
+                bags.add(new BagEstimate.PlannedBag(bags.size(), size,
+                        bag.getManifest().getFiles().size()));
+            }
+        }
+        return bags;
+    }
+
+    /**
+     * Bags are written bag.write.parallel at a time, so each round takes as long as the largest
+     * bag in it
+     */
+    private Duration duration(List<BagEstimate.PlannedBag> bags, long bytesPerSecond) {
+        int parallel = Math.max(1, bagProperties.getWrite().getParallel());
+        long seconds = 0;
+        for (int i = 0; i < bags.size(); i += parallel) {
+            long largest = 0;
+            for (int j = i; j < Math.min(bags.size(), i + parallel); j++) {
+                largest = Math.max(largest, bags.get(j).getSize());
+            }
+            seconds += (largest + bytesPerSecond - 1) / bytesPerSecond;
+        }
+        return Duration.ofSeconds(seconds);
+    }
+
+    private long size(Path path) throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+}
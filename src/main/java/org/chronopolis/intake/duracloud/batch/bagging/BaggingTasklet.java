@@ -1,13 +1,16 @@
 package org.chronopolis.intake.duracloud.batch.bagging;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.chronopolis.bag.SimpleNamingSchema;
+import org.chronopolis.bag.core.Bag;
 import org.chronopolis.bag.core.BagInfo;
 import org.chronopolis.bag.core.BagIt;
 import org.chronopolis.bag.core.OnDiskTagFile;
+import org.chronopolis.bag.core.PayloadFile;
 import org.chronopolis.bag.core.PayloadManifest;
 import org.chronopolis.bag.metrics.Metric;
 import org.chronopolis.bag.metrics.WriteMetrics;
-import org.chronopolis.bag.packager.DirectoryPackager;
 import org.chronopolis.bag.partitioner.Bagger;
 import org.chronopolis.bag.partitioner.BaggingResult;
 import org.chronopolis.bag.writer.BagWriter;
@@ -15,39 +18,67 @@ import org.chronopolis.bag.writer.SimpleBagWriter;
 import org.chronopolis.bag.writer.WriteResult;
 import org.chronopolis.common.storage.BagStagingProperties;
 import org.chronopolis.common.storage.Posix;
+import org.chronopolis.intake.duracloud.batch.support.ContentProperties;
 import org.chronopolis.intake.duracloud.batch.support.DuracloudMD5;
+import org.chronopolis.intake.duracloud.batch.support.Md5Index;
 import org.chronopolis.intake.duracloud.config.BridgeContext;
 import org.chronopolis.intake.duracloud.config.props.BagProperties;
+import org.chronopolis.intake.duracloud.config.props.Push;
 import org.chronopolis.intake.duracloud.model.BagReceipt;
 import org.chronopolis.intake.duracloud.model.BaggingHistory;
 import org.chronopolis.intake.duracloud.model.SimpleCallback;
 import org.chronopolis.intake.duracloud.notify.Notifier;
 import org.chronopolis.intake.duracloud.remote.BridgeAPI;
 import org.chronopolis.intake.duracloud.remote.model.HistorySummary;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import retrofit2.Call;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Tasklet to handle bagging and updating of history to duracloud
  * <p/>
+ * When run as a {@link Supplier}, the {@link BagReceipt}s for the snapshot are returned so that
+ * ingestion can start without waiting for the Bridge to be polled again.
+ * <p/>
  * Created by shake on 11/12/15.
  */
-public class BaggingTasklet implements Runnable {
+public class BaggingTasklet implements Runnable, Supplier<List<BagReceipt>> {
 
     private final Logger log;
 
     public static final String SNAPSHOT_CONTENT_PROPERTIES = "content-properties.json";
     public static final String SNAPSHOT_COLLECTION_PROPERTIES = ".collection-snapshot.properties";
     public static final String SNAPSHOT_MD5 = "manifest-md5.txt";
+    private static final String MD5_INDEX = "md5-index";
+    private static final String PARTITION_PREFIX = "bagger-";
 
     private String snapshotId;
     private String depositor;
@@ -56,6 +87,13 @@ public class BaggingTasklet implements Runnable {
 
     private Notifier notifier;
     private BridgeContext bridgeContext;
+    private Executor writers;
+    private LinkMode linkMode = LinkMode.COPY;
+    private ThroughputHistory throughput;
+    private WriteThrottle throttle;
+    private SnapshotDetails details;
+    private Executor preflight = MoreExecutors.directExecutor();
+    private final Set<Path> sidecars = new HashSet<>();
 
     public BaggingTasklet(String snapshotId,
                           String depositor,
@@ -63,6 +101,24 @@ public class BaggingTasklet implements Runnable {
                           BagProperties bagProperties,
                           BagStagingProperties stagingProperties,
                           Notifier notifier) {
+        this(snapshotId, depositor, bridgeContext, bagProperties, stagingProperties, notifier,
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Create a BaggingTasklet which can write bags in parallel
+     * <p>
+     * Up to bag.write.parallel bags from the snapshot are submitted to the writers at a time;
+     * the size of the writer pool limits how many bags are written across all snapshots.
+     */
+    public BaggingTasklet(String snapshotId,
+                          String depositor,
+                          BridgeContext bridgeContext,
+                          BagProperties bagProperties,
+                          BagStagingProperties stagingProperties,
+                          Notifier notifier,
+                          Executor writers) {
+        this.writers = writers;
         this.notifier = notifier;
         this.depositor = depositor;
         this.snapshotId = snapshotId;
@@ -70,90 +126,669 @@ public class BaggingTasklet implements Runnable {
         this.bagProperties = bagProperties;
         this.stagingProperties = stagingProperties;
         this.log = bridgeContext.getLogger();
+        this.throughput = new ThroughputHistory(bagProperties.getEstimate().getThroughput());
+    }
+
+    /**
+     * Set the {@link LinkMode} for placing payload files into staging
+     *
+     * @param linkMode the {@link LinkMode}
+     * @return this
+     */
+    public BaggingTasklet withLinkMode(LinkMode linkMode) {
+        this.linkMode = linkMode;
+        return this;
+    }
+
+    /**
+     * Set the {@link ThroughputHistory} to record the write throughput of each bag to
+     *
+     * @param throughput the {@link ThroughputHistory}
+     * @return this
+     */
+    public BaggingTasklet withThroughput(ThroughputHistory throughput) {
+        this.throughput = throughput;
+        return this;
+    }
+
+    /**
+     * Set the {@link WriteThrottle} to limit writing payload files with
+     *
+     * @param throttle the {@link WriteThrottle}
+     * @return this
+     */
+    public BaggingTasklet withThrottle(WriteThrottle throttle) {
+        this.throttle = throttle;
+        return this;
+    }
+
+    /**
+     * Set the {@link SnapshotDetails} from the Bridge, used to check the snapshot before bagging
+     *
+     * @param details the {@link SnapshotDetails}
+     * @return this
+     */
+    public BaggingTasklet withDetails(SnapshotDetails details) {
+        this.details = details;
+        return this;
+    }
+
+    /**
+     * Set the executor used to check files in the snapshot before bagging
+     *
+     * @param preflight the executor
+     * @return this
+     */
+    public BaggingTasklet withPreflight(Executor preflight) {
+        this.preflight = preflight;
+        return this;
     }
 
     @Override
     public void run() {
+        get();
+    }
+
+    /**
+     * Plan the bags for the snapshot without writing anything
+     *
+     * @return the {@link BagEstimate} for the snapshot
+     * @throws IOException if the manifest or snapshot cannot be read
+     */
+    public BagEstimate estimate() throws IOException {
+        Path snapshotBase = Paths.get(bridgeContext.getSnapshots()).resolve(snapshotId);
+        Path manifestPath = snapshotBase.resolve(bridgeContext.getManifest());
+        Bagger bagger = configurePartitioner(bagger(snapshotBase, bagInfo())
+                .withMaxSize(bagProperties.getMaxSize(), bagProperties.getUnit()));
+        return new BagEstimator(bagProperties, throughput, linkMode)
+                .withBagger(bagger)
+                .estimate(snapshotId, snapshotBase, manifestPath);
+    }
+
+    /**
+     * Bag the snapshot and update the Bridge with the results
+     * <p>
+     * Digest sidecars are only consumed by ingestion, so they are removed here if the snapshot
+     * failed or is not being pushed anywhere.
+     *
+     * @return the {@link BagReceipt}s for the snapshot if all bags were written and the Bridge
+     * was updated, otherwise an empty list
+     */
+    @Override
+    public List<BagReceipt> get() {
+        List<BagReceipt> receipts = bag();
+        if (receipts.isEmpty() || bridgeContext.getPush() == Push.NONE) {
+            removeSidecars();
+        }
+        return receipts;
+    }
+
+    private void removeSidecars() {
+        for (Path sidecar : sidecars) {
+            try {
+                Files.deleteIfExists(sidecar);
+            } catch (IOException e) {
+                log.warn("{} - unable to remove {}", snapshotId, sidecar, e);
+            }
+        }
+        sidecars.clear();
+    }
+
+    /**
+     * Bag the snapshot and update the Bridge with the results
+     *
+     * @return the {@link BagReceipt}s for the snapshot
+     */
+    private List<BagReceipt> bag() {
+        List<BagReceipt> receipts = ImmutableList.of();
+        if (bagProperties.getEstimate().getDryRun()) {
+            dryRun();
+            return receipts;
+        }
+
         Posix posix = stagingProperties.getPosix();
 
         Path out = Paths.get(posix.getPath(), depositor);
         Path duraBase = Paths.get(bridgeContext.getSnapshots());
         Path snapshotBase = duraBase.resolve(snapshotId);
-        String manifestName = bridgeContext.getManifest();
+        Path manifestPath = snapshotBase.resolve(bridgeContext.getManifest());
+        if (bagProperties.getPreflight().getEnabled() && !preflight(snapshotBase, manifestPath)) {
+            return receipts;
+        }
+
+        if (bagProperties.getStreaming().getEnabled()
+                || bagProperties.getPartition() == BagProperties.Partition.BALANCED) {
+            return streamBags(snapshotBase, manifestPath, out);
+        }
 
         // Create the manifest to be used later on
-        try (InputStream input = Files.newInputStream(snapshotBase.resolve(manifestName))) {
+        try (InputStream input = Files.newInputStream(manifestPath)) {
             PayloadManifest manifest = PayloadManifest.loadFromStream(input, snapshotBase);
             if (manifest.getFiles().isEmpty()) {
-                log.warn("{} - snapshot is empty!", snapshotId);
-
-                String title = "Snapshot Error %s: No Files";
-                String errorMsg = "Snapshot contains no files and is unable to be bagged";
-                notifier.notify(String.format(title, snapshotId), errorMsg);
+                notifyEmpty();
             } else {
-                prepareBags(snapshotBase, out, manifest);
+                receipts = prepareBags(snapshotBase, out, manifest);
             }
         } catch (IOException e) {
             log.error("{} - unable to read manifest", snapshotId, e);
         }
+
+        return receipts;
+    }
+
+    /**
+     * Check that every file in the manifest exists and that the snapshot matches what the Bridge
+     * reported. If it does not, everything which is wrong is sent in a single notification.
+     *
+     * @param snapshotBase The base directory of the snapshot
+     * @param manifestPath The manifest of the snapshot
+     * @return true if the snapshot can be bagged
+     */
+    private boolean preflight(Path snapshotBase, Path manifestPath) {
+        String title = "Snapshot Error %s: Pre-flight check failed";
+        List<String> problems;
+        long start = System.currentTimeMillis();
+        try {
+            PreflightCheck.Result result = new PreflightCheck(snapshotBase, manifestPath,
+                    preflight, bagProperties.getPreflight().getThreads() * 2).run(details);
+            LoggerFactory.getLogger("metrics").info("{},preflight,{},{},{}", snapshotId,
+                    System.currentTimeMillis() - start, result.getFiles(), result.getBytes());
+            problems = result.getProblems();
+        } catch (IOException | RuntimeException e) {
+            log.error("{} - unable to run pre-flight check", snapshotId, e);
+            problems = ImmutableList.of("Unable to read the manifest: " + e.getMessage());
+        }
+
+        if (!problems.isEmpty()) {
+            log.error("{} - pre-flight check failed: {}", snapshotId, problems);
+            String message = "Snapshot " + snapshotId + " cannot be bagged:\n - "
+                    + String.join("\n - ", problems);
+            notifier.notify(String.format(title, snapshotId), message);
+        }
+        return problems.isEmpty();
+    }
+
+    /**
+     * Log the estimate for the snapshot instead of bagging it
+     */
+    private void dryRun() {
+        try {
+            BagEstimate estimate = estimate();
+            log.info("{} - dry run: {}", snapshotId, estimate);
+            LoggerFactory.getLogger("metrics").info("{},estimate,{},{},{},{},{}",
+                    snapshotId, estimate.getBags().size(), estimate.getFiles(),
+                    estimate.getPayloadBytes(), estimate.getStagingBytes(),
+                    estimate.getDuration().getSeconds());
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("{} - unable to estimate bags", snapshotId, e);
+        }
+    }
+
+    /**
+     * Partition and write bags for a snapshot without loading its entire manifest
+     * <p>
+     * The manifest is split into sorted runs on disk by a {@link StreamingPartitioner}, and the
+     * {@link PayloadManifest} for a bag is only loaded when the writer is ready for it. This is
+     * also used for balanced partitioning, which needs to size every file before choosing bags.
+     * The partitions are written with {@link #writePartitions}.
+     *
+     * @param snapshotBase The base directory of the snapshot
+     * @param manifestPath The manifest of the snapshot
+     * @param out          The output directory to write to
+     * @return the {@link BagReceipt}s for the bags which were written
+     */
+    private List<BagReceipt> streamBags(Path snapshotBase, Path manifestPath, Path out) {
+        List<BagReceipt> receipts = ImmutableList.of();
+        BagProperties.Streaming streaming = bagProperties.getStreaming();
+        Path work = Paths.get(streaming.getWorkDirectory(), snapshotId);
+        try (StreamingPartitioner partitioner = new StreamingPartitioner(snapshotBase,
+                manifestPath, work, bagProperties.maxBytes(), streaming.getRunSize())) {
+            partitioner.withMaxFiles(streaming.getMaxFiles()).spill();
+            LoggerFactory.getLogger("metrics").info("{},manifest-runs,{},{},{}",
+                    snapshotId, partitioner.getRuns(), partitioner.getFiles(),
+                    partitioner.getSize());
+
+            if (!partitioner.getRejected().isEmpty()) {
+                log.error("{} - unable to partition bags! {} Invalid Files",
+                        snapshotId, partitioner.getRejected());
+                notifyRejected(partitioner.getRejected().size());
+            } else if (partitioner.getFiles() == 0) {
+                notifyEmpty();
+            } else {
+                receipts = writePartitions(snapshotBase, out, work,
+                        partitions(partitioner, work));
+            }
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            log.error("{} - unable to read manifest", snapshotId, e);
+            notifyUnreadable(e);
+        }
+
+        return receipts;
+    }
+
+    /**
+     * Write a bag for each {@link ManifestPartition} of a snapshot and update the Bridge
+     * <p>
+     * The md5 manifest is indexed once and every partition is assigned to it, so that the
+     * content-properties.json can be split across bags in a single pass. Each bag then only
+     * carries the md5 lines and content properties for its own files.
+     *
+     * @param snapshotBase The base directory of the snapshot
+     * @param out          The output directory to write to
+     * @param work         The directory to write the index and content properties to
+     * @param iterator     The partitions of the snapshot
+     * @return the {@link BagReceipt}s for the bags which were written
+     * @throws IOException if the md5 manifest or content properties cannot be read
+     */
+    private List<BagReceipt> writePartitions(Path snapshotBase,
+                                             Path out,
+                                             Path work,
+                                             Iterator<ManifestPartition> iterator)
+            throws IOException {
+        List<BagReceipt> receipts = ImmutableList.of();
+        try (Md5Index index = Md5Index.build(snapshotBase.resolve(SNAPSHOT_MD5),
+                work.resolve(MD5_INDEX))) {
+            log.debug("{} - indexed {} md5 entries", snapshotId, index.size());
+            List<ManifestPartition> partitions = new ArrayList<>();
+            while (iterator.hasNext()) {
+                ManifestPartition partition = iterator.next();
+                index.assign(partition.getManifest(), partition.getIndex());
+                partitions.add(partition);
+            }
+
+            ContentProperties properties = new ContentProperties(
+                    snapshotBase.resolve(SNAPSHOT_CONTENT_PROPERTIES), work);
+            properties.split(index, partitions.size());
+            PartitionedBags bags = new PartitionedBags(snapshotBase,
+                    partitions.iterator(), index, properties);
+            Md5Verifier verifier = bagProperties.getVerifyMd5()
+                    ? new Md5Verifier(index)
+                    : null;
+            Optional<List<WriteResult>> results = writeBags(out, bags, verifier);
+            if (bags.rejected > 0) {
+                notifyRejected(bags.rejected);
+            } else if (results.isPresent() && verified(verifier)) {
+                receipts = updateBridge(results.get());
+            }
+        }
+        return receipts;
+    }
+
+    /**
+     * Get the partitions for a snapshot which has been spilled to disk. Greedy partitions are
+     * cut as they are needed; balanced partitions need the whole snapshot so they are planned
+     * from a {@link CompactManifest}.
+     *
+     * @param partitioner the partitioner which has spilled the manifest
+     * @param work        the directory to write the manifest for each bag to
+     * @return the {@link ManifestPartition}s for the snapshot
+     * @throws IOException if the runs cannot be read or the manifests cannot be written
+     */
+    private Iterator<ManifestPartition> partitions(StreamingPartitioner partitioner, Path work)
+            throws IOException {
+        if (bagProperties.getPartition() != BagProperties.Partition.BALANCED) {
+            return partitioner.partitions();
+        }
+
+        BalancedPartitioner balanced = new BalancedPartitioner(bagProperties.maxBytes(),
+                bagProperties.getWrite().getParallel())
+                .withMaxFiles(bagProperties.getStreaming().getMaxFiles());
+        List<ManifestPartition> partitions = balanced.partition(partitioner.compact(), work);
+        partitions.forEach(partition -> log.debug("{} - planned bag {} with {} files, {} bytes",
+                snapshotId, partition.getIndex(), partition.getFiles(), partition.getSize()));
+        return partitions.iterator();
     }
 
     /**
      * Prepare and write bags for a snapshot
+     * <p>
+     * A snapshot which fits in a single bag is written with the full manifest-md5.txt and
+     * content-properties.json. Otherwise those would be copied into every bag, so the bags are
+     * written with {@link #splitBags} instead.
      *
      * @param snapshotBase The base directory of the snapshot
      * @param out          The output directory to write to
      * @param manifest     The PayloadManifest of all files in the snapshot
+     * @return the {@link BagReceipt}s for the bags which were written
      */
-    private void prepareBags(Path snapshotBase, Path out, PayloadManifest manifest) {
-        // TODO: fill out with what...?
-        BagInfo info = new BagInfo()
-                .includeMissingTags(true)
-                .withInfo(BagInfo.Tag.INFO_SOURCE_ORGANIZATION, depositor);
-
-        Path duracloudManifest = snapshotBase.resolve(SNAPSHOT_MD5);
-        Path contentProperties = snapshotBase.resolve(SNAPSHOT_CONTENT_PROPERTIES);
-        Path collectionProperties = snapshotBase.resolve(SNAPSHOT_COLLECTION_PROPERTIES);
-        Bagger bagger = new Bagger()
-                .withBagInfo(info)
-                .withBagit(new BagIt())
+    private List<BagReceipt> prepareBags(Path snapshotBase, Path out, PayloadManifest manifest) {
+        List<BagReceipt> receipts = ImmutableList.of();
+        BagInfo info = bagInfo();
+        Bagger bagger = bagger(snapshotBase, info)
                 .withPayloadManifest(manifest)
-                .withMaxSize(bagProperties.getMaxSize(), bagProperties.getUnit())
-                .withTagFile(new DuracloudMD5(duracloudManifest, bridgeContext))
-                .withTagFile(new OnDiskTagFile(contentProperties))
-                .withTagFile(new OnDiskTagFile(collectionProperties));
+                .withMaxSize(bagProperties.getMaxSize(), bagProperties.getUnit());
         bagger = configurePartitioner(bagger);
 
         BaggingResult partition = bagger.partition();
-        if (partition.isSuccess()) {
-            BagWriter writer = buildWriter(out);
-            List<WriteResult> results = writer.write(partition.getBags());
-            updateBridge(results);
+        if (partition.isSuccess() && partition.getBags().size() > 1) {
+            receipts = splitBags(snapshotBase, out, partition.getBags());
+        } else if (partition.isSuccess()) {
+            receipts = writeBags(snapshotBase, out, partition.getBags().iterator());
         } else {
             // do some logging of the failed bags
             log.error("{} - unable to partition bags! {} Invalid Files",
                     snapshotId, partition.getRejected());
+            notifyRejected(partition.getRejected().size());
+        }
+
+        return receipts;
+    }
 
-            String title = "Snapshot Error %s: Unable to partition";
-            String message = "Snapshot was not able to be partitioned."
-                    + partition.getRejected().size() + " Rejected Files";
+    /**
+     * Write bags which were partitioned in memory so that each only carries the md5 lines and
+     * content properties for its own files
+     * <p>
+     * The Bagger is only used to choose the files for each bag. Their manifests are written to
+     * the work directory as {@link ManifestPartition}s and the bags are created again from them
+     * by {@link #writePartitions}, the same as a streamed snapshot.
+     *
+     * @param snapshotBase The base directory of the snapshot
+     * @param out          The output directory to write to
+     * @param bags         The bags chosen by the Bagger
+     * @return the {@link BagReceipt}s for the bags which were written
+     */
+    private List<BagReceipt> splitBags(Path snapshotBase, Path out, List<Bag> bags) {
+        List<BagReceipt> receipts = ImmutableList.of();
+        Path work = Paths.get(bagProperties.getStreaming().getWorkDirectory(), snapshotId);
+        try {
+            Files.createDirectories(work);
+            List<ManifestPartition> partitions = new ArrayList<>(bags.size());
+            for (Bag bag : bags) {
+                partitions.add(writeManifest(work, partitions.size(), bag.getManifest()));
+            }
+            receipts = writePartitions(snapshotBase, out, work, partitions.iterator());
+        } catch (IOException | UncheckedIOException e) {
+            log.error("{} - unable to read manifest", snapshotId, e);
+            notifyUnreadable(e);
+        } finally {
+            removeWork(work);
+        }
+        return receipts;
+    }
+
+    /**
+     * Write the manifest for a bag in the same format as the snapshot's manifest-sha256.txt
+     *
+     * @param work     the directory to write the manifest to
+     * @param index    the index of the bag in the snapshot
+     * @param manifest the {@link PayloadManifest} of the bag
+     * @return the {@link ManifestPartition} for the bag
+     * @throws IOException if the manifest cannot be written
+     */
+    private ManifestPartition writeManifest(Path work, int index, PayloadManifest manifest)
+            throws IOException {
+        long size = 0;
+        Path path = work.resolve(PARTITION_PREFIX + index);
+        try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8)) {
+            for (PayloadFile file : manifest.getFiles().values()) {
+                writer.write(file.getDigest() + "  " + file.getFile());
+                writer.newLine();
+                size += file.getSize();
+            }
+        }
+        return new ManifestPartition(index, path, size, manifest.getFiles().size());
+    }
+
+    private void removeWork(Path work) {
+        if (!Files.exists(work)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(work)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.debug("{} - unable to remove {}", snapshotId, path);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("{} - unable to clean work directory {}", snapshotId, work, e);
+        }
+    }
+
+    /**
+     * Write bags which were partitioned in memory and update the Bridge. When payload files are
+     * verified against manifest-md5.txt, it is indexed first and the index is removed after.
+     *
+     * @param snapshotBase The base directory of the snapshot
+     * @param out          The output directory to write to
+     * @param bags         The bags to write
+     * @return the {@link BagReceipt}s for the bags which were written
+     */
+    private List<BagReceipt> writeBags(Path snapshotBase, Path out, Iterator<Bag> bags) {
+        if (!bagProperties.getVerifyMd5()) {
+            return writeBags(out, bags, null)
+                    .map(this::updateBridge)
+                    .orElse(ImmutableList.of());
+        }
+
+        List<BagReceipt> receipts = ImmutableList.of();
+        Path work = Paths.get(bagProperties.getStreaming().getWorkDirectory(), snapshotId);
+        Path indexPath = work.resolve(MD5_INDEX);
+        try (Md5Index index = Md5Index.build(snapshotBase.resolve(SNAPSHOT_MD5), indexPath)) {
+            Md5Verifier verifier = new Md5Verifier(index);
+            Optional<List<WriteResult>> results = writeBags(out, bags, verifier);
+            if (results.isPresent() && verified(verifier)) {
+                receipts = updateBridge(results.get());
+            }
+        } catch (IOException e) {
+            log.error("{} - unable to index md5 manifest", snapshotId, e);
+            notifyUnreadable(e);
+        } finally {
+            try {
+                Files.deleteIfExists(indexPath);
+                Files.deleteIfExists(work);
+            } catch (IOException e) {
+                log.debug("{} - unable to remove {}", snapshotId, indexPath);
+            }
+        }
+
+        return receipts;
+    }
+
+    /**
+     * Check that every payload file matched manifest-md5.txt. If any did not, they are all sent
+     * in a single notification for the snapshot.
+     *
+     * @param verifier the {@link Md5Verifier} used while writing, or null if md5s were not checked
+     * @return true if the bags can be pushed
+     */
+    private boolean verified(Md5Verifier verifier) {
+        if (verifier == null) {
+            return true;
+        }
+
+        LoggerFactory.getLogger("metrics").info("{},md5-verify,{},{},{}", snapshotId,
+                verifier.getChecked(), verifier.getMismatched(), verifier.getMissing());
+        if (!verifier.isSuccess()) {
+            List<String> problems = verifier.getProblems();
+            log.error("{} - md5 verification failed: {}", snapshotId, problems);
+            String title = "Snapshot Error %s: MD5 verification failed";
+            String message = "Snapshot " + snapshotId + " does not match its md5 manifest:\n - "
+                    + String.join("\n - ", problems);
+            notifier.notify(String.format(title, snapshotId), message);
+        }
+        return verifier.isSuccess();
+    }
+
+    /**
+     * Create a Bagger with the tag files which are included in every bag of a snapshot
+     *
+     * @param snapshotBase The base directory of the snapshot
+     * @param info         The BagInfo for each bag
+     * @return the Bagger
+     */
+    private Bagger bagger(Path snapshotBase, BagInfo info) {
+        Path duracloudManifest = snapshotBase.resolve(SNAPSHOT_MD5);
+        Path contentProperties = snapshotBase.resolve(SNAPSHOT_CONTENT_PROPERTIES);
+        return bagger(snapshotBase, info,
+                new DuracloudMD5(duracloudManifest, bridgeContext),
+                new OnDiskTagFile(contentProperties));
+    }
+
+    /**
+     * Create a Bagger with the tag files which are included in every bag of a snapshot
+     *
+     * @param snapshotBase The base directory of the snapshot
+     * @param info         The BagInfo for each bag
+     * @param md5          The md5 manifest from DuraCloud to include
+     * @param properties   The content properties from DuraCloud to include
+     * @return the Bagger
+     */
+    private Bagger bagger(Path snapshotBase,
+                          BagInfo info,
+                          DuracloudMD5 md5,
+                          OnDiskTagFile properties) {
+        Path collectionProperties = snapshotBase.resolve(SNAPSHOT_COLLECTION_PROPERTIES);
+        return new Bagger()
+                .withBagInfo(info)
+                .withBagit(new BagIt())
+                .withTagFile(md5)
+                .withTagFile(properties)
+                .withTagFile(new OnDiskTagFile(collectionProperties));
+    }
+
+    private BagInfo bagInfo() {
+        // TODO: fill out with what...?
+        return new BagInfo()
+                .includeMissingTags(true)
+                .withInfo(BagInfo.Tag.INFO_SOURCE_ORGANIZATION, depositor);
+    }
+
+    private void notifyEmpty() {
+        log.warn("{} - snapshot is empty!", snapshotId);
+
+        String title = "Snapshot Error %s: No Files";
+        String errorMsg = "Snapshot contains no files and is unable to be bagged";
+        notifier.notify(String.format(title, snapshotId), errorMsg);
+    }
+
+    private void notifyUnreadable(Exception e) {
+        String title = "Snapshot Error %s: Unable to read manifest";
+        String message = "The manifests for the snapshot could not be read or indexed: " + e;
+        notifier.notify(String.format(title, snapshotId), message);
+    }
+
+    private void notifyRejected(int rejected) {
+        String title = "Snapshot Error %s: Unable to partition";
+        String message = "Snapshot was not able to be partitioned."
+                + rejected + " Rejected Files";
+        notifier.notify(String.format(title, snapshotId), message);
+    }
+
+    /**
+     * Write bags with a {@link SnapshotPackager}, logging how each payload digest was found
+     * <p>
+     * If a bag cannot be created or written, the error is logged and notified here so that
+     * writing bags one at a time or in parallel fails the same way.
+     *
+     * @param out      The output directory to write to
+     * @param bags     The bags to write
+     * @param verifier The {@link Md5Verifier} to check payload files with, or null
+     * @return the {@link WriteResult}s for the bags, or empty if the bags could not be written
+     */
+    private Optional<List<WriteResult>> writeBags(Path out,
+                                                  Iterator<Bag> bags,
+                                                  Md5Verifier verifier) {
+        SnapshotPackager packager = buildPackager(out).withMd5Verifier(verifier);
+        List<WriteResult> results;
+        try {
+            results = write(packager, bags);
+        } catch (RuntimeException e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null
+                    ? e.getCause()
+                    : e;
+            log.error("{} - error writing bags", snapshotId, cause);
+            String title = "Unable to create bag for %s";
+            String message = "Unable to write bags for snapshot: " + cause;
             notifier.notify(String.format(title, snapshotId), message);
+            return Optional.empty();
+        } finally {
+            packager.close();
+            sidecars.addAll(packager.getSidecars());
+        }
+        Logger metrics = LoggerFactory.getLogger("metrics");
+        metrics.info("{},payload-digests,{},{},{}",
+                snapshotId, packager.getVerified(), packager.getCopied(),
+                packager.getLinked());
+        if (throttle != null) {
+            results.forEach(result -> metrics.info("{},throttled,{}", result.getBag().getName(),
+                    packager.getThrottledMillis(result.getBag().getName())));
+        }
+        return Optional.of(results);
+    }
+
+    /**
+     * Write the bags for a snapshot, either one after another or in parallel when
+     * bag.write.parallel is greater than 1
+     * <p>
+     * Each parallel write uses its own {@link BagWriter} so that no state is shared between bags.
+     * If a write fails, no more bags are submitted and the exception is thrown once every other
+     * write has finished. The same holds if the next bag cannot be created, a writer rejects a
+     * bag, or the thread is interrupted: a write which has started cannot be stopped, so every
+     * submitted write is always waited on before returning.
+     * <p>
+     * Bags are only taken from the iterator once there is a permit to write them, so a lazily
+     * created bag is not held in memory while it waits for a writer.
+     *
+     * @param packager the packager to write with
+     * @param bags     the bags to write
+     * @return the {@link WriteResult}s, in the same order as the bags
+     */
+    private List<WriteResult> write(SnapshotPackager packager, Iterator<Bag> bags) {
+        int parallel = bagProperties.getWrite().getParallel();
+        if (parallel <= 1) {
+            BagWriter writer = buildWriter(packager);
+            List<WriteResult> results = new ArrayList<>();
+            bags.forEachRemaining(bag -> results.addAll(writer.write(ImmutableList.of(bag))));
+            return results;
+        }
+
+        Semaphore permits = new Semaphore(parallel);
+        List<CompletableFuture<List<WriteResult>>> writes = new ArrayList<>();
+        try {
+            while (true) {
+                permits.acquire();
+                if (writes.stream().anyMatch(CompletableFuture::isCompletedExceptionally)
+                        || !bags.hasNext()) {
+                    break;
+                }
+
+                Bag bag = bags.next();
+                CompletableFuture<List<WriteResult>> write = CompletableFuture.supplyAsync(
+                        () -> buildWriter(packager).write(ImmutableList.of(bag)), writers);
+                write.whenComplete((result, throwable) -> permits.release());
+                writes.add(write);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } finally {
+            // join does not respond to interrupts, so this waits even when interrupted
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                    .exceptionally(throwable -> null)
+                    .join();
         }
+
+        return writes.stream()
+                .map(CompletableFuture::join)
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
     }
 
     /**
      * Update the bridge with the results of our bagging if we succeeded
      * <p>
-     * Not sure if we need to return the response, but we'll do it for now in case we end up
-     * needing it.
+     * The receipts are only returned once the Bridge has accepted the history, that way anything
+     * which continues on from them will still be recoverable by polling the Bridge.
      *
      * @param results The results from writing the bags
-     * @return the response from communicating with the bridge
+     * @return the {@link BagReceipt}s if the bridge was updated, otherwise an empty list
      */
-    @SuppressWarnings("UnusedReturnValue")
-    private Optional<HistorySummary> updateBridge(List<WriteResult> results) {
+    private List<BagReceipt> updateBridge(List<WriteResult> results) {
         BridgeAPI bridge = bridgeContext.getApi();
-        Optional<HistorySummary> response = Optional.empty();
+        List<BagReceipt> receipts = ImmutableList.of();
         SimpleCallback<HistorySummary> summaryCB = new SimpleCallback<>();
         BaggingHistory history = new BaggingHistory(snapshotId, false);
 
@@ -168,7 +803,9 @@ public class BaggingTasklet implements Runnable {
         if (results.size() == history.getHistory().size()) {
             Call<HistorySummary> hc = bridge.postHistory(snapshotId, history);
             hc.enqueue(summaryCB);
-            response = summaryCB.getResponse();
+            if (summaryCB.getResponse().isPresent()) {
+                receipts = history.getHistory();
+            }
         } else {
             log.error("Error writing bags for {}", snapshotId);
             String title = "Unable to create bag for %s";
@@ -179,13 +816,14 @@ public class BaggingTasklet implements Runnable {
             notifier.notify(String.format(title, snapshotId), message);
         }
 
-        return response;
+        return receipts;
     }
 
     private void captureMetrics(WriteResult result) {
         Logger logger = LoggerFactory.getLogger("metrics");
         WriteMetrics metrics = result.getMetrics();
         if (metrics != null) {
+            throughput.record(metrics);
             String bag = result.getBag().getName();
             logMetric(logger, bag, "bag", metrics.getBag());
             logMetric(logger, bag, "manifest", metrics.getManifest());
@@ -205,6 +843,84 @@ public class BaggingTasklet implements Runnable {
                 metric.getBytesWritten());
     }
 
+    /**
+     * Creates the bags for each {@link ManifestPartition} as they are needed by the writer
+     * <p>
+     * The manifest for a partition is removed once it has been loaded. If a partition cannot be
+     * bagged, no more bags are created and the number of rejected files is kept so the snapshot
+     * can be failed once the bags already handed to the writer have finished.
+     */
+    private class PartitionedBags implements Iterator<Bag> {
+        private final Path snapshotBase;
+        private final BagInfo info;
+        private final Iterator<ManifestPartition> partitions;
+        private final Md5Index index;
+        private final ContentProperties properties;
+        private final Deque<Bag> pending = new ArrayDeque<>();
+        private int bagged = 0;
+        private int rejected = 0;
+
+        private PartitionedBags(Path snapshotBase,
+                                Iterator<ManifestPartition> partitions,
+                                Md5Index index,
+                                ContentProperties properties) {
+            this.snapshotBase = snapshotBase;
+            this.partitions = partitions;
+            this.index = index;
+            this.properties = properties;
+            this.info = bagInfo();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending.isEmpty() && rejected == 0 && partitions.hasNext()) {
+                bag(partitions.next());
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public Bag next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.poll();
+        }
+
+        private void bag(ManifestPartition partition) {
+            PayloadManifest manifest;
+            DuracloudMD5 md5 = new DuracloudMD5(snapshotBase.resolve(SNAPSHOT_MD5), bridgeContext);
+            try (InputStream input = Files.newInputStream(partition.getManifest())) {
+                manifest = PayloadManifest.loadFromStream(input, snapshotBase);
+                md5.setIndex(index, partition.getManifest());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            try {
+                Files.deleteIfExists(partition.getManifest());
+            } catch (IOException e) {
+                log.debug("{} - unable to remove {}", snapshotId, partition.getManifest());
+            }
+
+            OnDiskTagFile contentProperties =
+                    new OnDiskTagFile(properties.forBag(partition.getIndex()));
+            BaggingResult result = bagger(snapshotBase, info, md5, contentProperties)
+                    .withPayloadManifest(manifest)
+                    .withMaxSize(bagProperties.getMaxSize(), bagProperties.getUnit())
+                    .withNamingSchema(new OffsetNamingSchema(snapshotId, bagged))
+                    .partition();
+            if (result.isSuccess()) {
+                pending.addAll(result.getBags());
+                bagged += result.getBags().size();
+            } else {
+                log.error("{} - unable to partition bags! {} Invalid Files",
+                        snapshotId, result.getRejected());
+                rejected = result.getRejected().size();
+            }
+        }
+    }
+
     /**
      * Update the Bagger partitioner based on if we are pushing to dpn or not
      * <p>
@@ -220,15 +936,40 @@ public class BaggingTasklet implements Runnable {
     }
 
     /**
-     * Build a writer which only uses a directory packager
+     * Build the packager for writing bags into the staging area
      *
      * @param out the location to write to
+     * @return the SnapshotPackager
+     */
+    private SnapshotPackager buildPackager(Path out) {
+        BagProperties.Trusted trusted = bagProperties.getTrusted();
+        SnapshotPackager packager = new SnapshotPackager(out);
+        if (trusted.getEnabled()) {
+            packager.withTrustedManifest(trusted.getSample());
+        }
+        if (bagProperties.getSidecar()) {
+            packager.withSidecar();
+        }
+        if (throttle != null) {
+            packager.withThrottle(throttle, bridgeContext.getName());
+        }
+        return packager.withLinkMode(linkMode);
+    }
+
+    /**
+     * Build a writer which only uses a directory packager
+     * <p>
+     * The writer always validates; when the source manifest is trusted the packager returns the
+     * digests from the manifest for any files it does not sample, so only the sampled files are
+     * actually checked.
+     *
+     * @param packager the packager to write with
      * @return the BagWriter
      */
-    private BagWriter buildWriter(Path out) {
+    private BagWriter buildWriter(SnapshotPackager packager) {
         return new SimpleBagWriter()
                 .validate(true)
-                .withPackager(new DirectoryPackager(out));
+                .withPackager(packager);
     }
 
 }
@@ -0,0 +1,259 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Partition a snapshot into bags of nearly equal size
+ * <p>
+ * Filling each bag up to the max size before starting the next leaves a small remainder bag at
+ * the end, which means a single large bag ends up dominating the time it takes to write and
+ * replicate the snapshot. Instead, the number of bags is chosen up front and the payload is
+ * spread evenly across them:
+ * <ol>
+ * <li>the bag count is the fewest bags which fit under the max size and max files, rounded up to
+ * a multiple of the number of bags which can be written at once</li>
+ * <li>files are grouped by their parent directory, and any group larger than the target size of
+ * a bag, or with more than the max files, is split into pieces which fit</li>
+ * <li>groups are placed from largest to smallest into the least full bag which still has room
+ * for both their bytes and their files, and a new bag is only added if none do</li>
+ * </ol>
+ * Files within a bag stay in path order, and files from the same directory are kept in the same
+ * bag unless the directory itself is too large.
+ *
+ * @author shake
+ */
+public class BalancedPartitioner {
+
+    private static final String PARTITION_PREFIX = "balanced-";
+
+    private final long maxBytes;
+    private final int parallel;
+    private long maxFiles = Long.MAX_VALUE;
+
+    /**
+     * Create a BalancedPartitioner
+     *
+     * @param maxBytes the maximum number of payload bytes in a bag
+     * @param parallel the number of bags which can be written at the same time
+     */
+    public BalancedPartitioner(long maxBytes, int parallel) {
+        this.maxBytes = maxBytes;
+        this.parallel = Math.max(1, parallel);
+    }
+
+    /**
+     * Limit the number of files in each bag
+     *
+     * @param maxFiles the maximum number of files in a bag
+     * @return this
+     */
+    public BalancedPartitioner withMaxFiles(long maxFiles) {
+        this.maxFiles = Math.max(1, maxFiles);
+        return this;
+    }
+
+    /**
+     * Determine the number of bags to aim for
+     *
+     * @param total the total size of the snapshot
+     * @return the number of bags
+     */
+    public int bagCount(long total) {
+        return bagCount(total, 0);
+    }
+
+    /**
+     * Determine the number of bags to aim for
+     *
+     * @param total the total size of the snapshot
+     * @param files the number of files in the snapshot
+     * @return the number of bags
+     */
+    public int bagCount(long total, long files) {
+        long needed = Math.max(1, Math.max((total + maxBytes - 1) / maxBytes,
+                (files + maxFiles - 1) / maxFiles));
+        if (needed == 1) {
+            return 1;
+        }
+
+        long rounded = ((needed + parallel - 1) / parallel) * parallel;
+        return (int) Math.min(Integer.MAX_VALUE, rounded);
+    }
+
+    /**
+     * Plan the bags for a manifest without writing anything
+     *
+     * @param manifest the entries of the snapshot, in path order
+     * @return the planned bins
+     */
+    public List<Bin> plan(CompactManifest manifest) {
+        int count = bagCount(manifest.getTotalSize(), manifest.size());
+        long target = Math.max(1, (manifest.getTotalSize() + count - 1) / count);
+        List<Group> groups = group(manifest, target);
+
+        List<Bin> bins = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bins.add(new Bin());
+        }
+
+        List<Group> sorted = new ArrayList<>(groups);
+        sorted.sort(Comparator.comparingLong((Group group) -> group.size).reversed());
+        for (Group group : sorted) {
+            Bin fit = null;
+            for (Bin bin : bins) {
+                boolean room = bin.size + group.size <= maxBytes
+                        && bin.files + group.files <= maxFiles;
+                if (room && (fit == null || bin.size < fit.size)) {
+                    fit = bin;
+                }
+            }
+
+            if (fit == null) {
+                fit = new Bin();
+                bins.add(fit);
+            }
+
+            fit.add(group);
+        }
+
+        // assign in path order so bag numbers follow the layout of the snapshot
+        List<Bin> planned = new ArrayList<>();
+        for (Group group : groups) {
+            if (group.bin.index < 0) {
+                group.bin.index = planned.size();
+                planned.add(group.bin);
+            }
+        }
+        return planned;
+    }
+
+    /**
+     * Partition a manifest and write the manifest for each bag to the work directory
+     *
+     * @param manifest the entries of the snapshot, in path order
+     * @param work     the directory to write the manifest for each bag to
+     * @return the {@link ManifestPartition}s, ordered by bag
+     * @throws IOException if a manifest cannot be written
+     */
+    public List<ManifestPartition> partition(CompactManifest manifest, Path work)
+            throws IOException {
+        List<Bin> bins = plan(manifest);
+        List<Group> groups = new ArrayList<>();
+        bins.forEach(bin -> groups.addAll(bin.groups));
+        groups.sort(Comparator.comparingInt(group -> group.start));
+
+        Files.createDirectories(work);
+        List<BufferedWriter> writers = new ArrayList<>(bins.size());
+        ImmutableList.Builder<ManifestPartition> partitions = ImmutableList.builder();
+        try {
+            for (Bin bin : bins) {
+                Path path = work.resolve(PARTITION_PREFIX + bin.index);
+                writers.add(Files.newBufferedWriter(path, UTF_8));
+                partitions.add(new ManifestPartition(bin.index, path, bin.size, bin.files));
+            }
+
+            int current = 0;
+            for (CompactManifest.Entry entry : manifest) {
+                while (entry.getIndex() >= groups.get(current).end()) {
+                    ++current;
+                }
+
+                BufferedWriter writer = writers.get(groups.get(current).bin.index);
+                writer.write(entry.toManifestLine());
+                writer.newLine();
+            }
+        } finally {
+            for (BufferedWriter writer : writers) {
+                writer.close();
+            }
+        }
+
+        return partitions.build();
+    }
+
+    /**
+     * Group consecutive entries by their parent directory, splitting any which are over the
+     * target size or the max files of a bag
+     */
+    private List<Group> group(CompactManifest manifest, long target) {
+        List<Group> groups = new ArrayList<>();
+        Group group = null;
+        String parent = null;
+        for (CompactManifest.Entry entry : manifest) {
+            String path = entry.getPath();
+            int slash = path.lastIndexOf('/');
+            String directory = slash < 0 ? "" : path.substring(0, slash);
+
+            boolean split = group != null
+                    && ((group.size > 0 && group.size + entry.getSize() > target)
+                    || group.files >= maxFiles);
+            if (group == null || !directory.equals(parent) || split) {
+                group = new Group(entry.getIndex());
+                groups.add(group);
+                parent = directory;
+            }
+
+            group.size += entry.getSize();
+            group.files++;
+        }
+        return groups;
+    }
+
+    /**
+     * A contiguous range of entries which are placed in the same bag
+     */
+    private static class Group {
+        private final int start;
+        private int files = 0;
+        private long size = 0;
+        private Bin bin;
+
+        private Group(int start) {
+            this.start = start;
+        }
+
+        private int end() {
+            return start + files;
+        }
+    }
+
+    /**
+     * A planned bag
+     */
+    public static class Bin {
+        private final List<Group> groups = new ArrayList<>();
+        private int index = -1;
+        private long size = 0;
+        private long files = 0;
+
+        private void add(Group group) {
+            groups.add(group);
+            group.bin = this;
+            size += group.size;
+            files += group.files;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+    }
+
+}
@@ -0,0 +1,268 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.io.BaseEncoding;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compact, append only store for the entries of a snapshot manifest
+ * <p>
+ * Instead of a Path and digest String for each payload file, entries are packed into a few
+ * primitive arrays:
+ * <ul>
+ * <li>paths are UTF-8 encoded and prefix compressed against the previous entry, followed by the
+ * size of the file, all as varints in a single byte array</li>
+ * <li>digests are decoded from hex and stored as raw bytes, back to back, in a second array</li>
+ * </ul>
+ * Entries appended in path order share most of their path with the entry before them, so only a
+ * few bytes of each path are kept. The entries can only be read back in order with an
+ * {@link Iterator}, which decodes a single {@link Entry} at a time.
+ * <p>
+ * This is only used to plan bags. The bag writer still needs a PayloadManifest, so each planned
+ * bag is written back out as a manifest and loaded on its own when it is written. The heap
+ * needed to write a bag is bounded by bag.streaming.maxFiles, not by this store.
+ *
+ * @author shake
+ */
+public class CompactManifest implements Iterable<CompactManifest.Entry> {
+
+    /**
+     * The length of a SHA-256 digest, in bytes
+     */
+    public static final int SHA256_LENGTH = 32;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+    private final int digestLength;
+
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    private byte[] digests;
+    private byte[] previous = new byte[0];
+    private int dataLength = 0;
+    private int count = 0;
+    private long totalSize = 0;
+
+    /**
+     * Create a CompactManifest for SHA-256 digests
+     */
+    public CompactManifest() {
+        this(SHA256_LENGTH);
+    }
+
+    /**
+     * Create a CompactManifest
+     *
+     * @param digestLength the length of each digest, in bytes
+     */
+    public CompactManifest(int digestLength) {
+        this.digestLength = digestLength;
+        this.digests = new byte[digestLength * INITIAL_CAPACITY];
+    }
+
+    /**
+     * Add an entry to the manifest
+     *
+     * @param path   the path of the payload file, relative to the snapshot
+     * @param digest the hex encoded digest of the payload file
+     * @param size   the size of the payload file
+     * @return this
+     * @throws IllegalArgumentException if the digest is not valid hex of the expected length
+     */
+    public CompactManifest add(String path, String digest, long size) {
+        if (digest.length() != digestLength * 2) {
+            throw new IllegalArgumentException("Invalid digest for " + path);
+        }
+
+        byte[] encoded = path.getBytes(UTF_8);
+        int shared = 0;
+        int max = Math.min(encoded.length, previous.length);
+        while (shared < max && encoded[shared] == previous[shared]) {
+            ++shared;
+        }
+
+        int suffix = encoded.length - shared;
+        ensureData(suffix + 3 * 10);
+        putVarint(shared);
+        putVarint(suffix);
+        System.arraycopy(encoded, shared, data, dataLength, suffix);
+        dataLength += suffix;
+        putVarint(size);
+
+        ensureDigests();
+        int offset = count * digestLength;
+        for (int i = 0; i < digestLength; i++) {
+            int high = Character.digit(digest.charAt(2 * i), 16);
+            int low = Character.digit(digest.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid digest for " + path);
+            }
+            digests[offset + i] = (byte) ((high << 4) | low);
+        }
+
+        previous = encoded;
+        totalSize += size;
+        ++count;
+        return this;
+    }
+
+    private void ensureData(int needed) {
+        if (dataLength + needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + needed));
+        }
+    }
+
+    private void ensureDigests() {
+        int needed = (count + 1) * digestLength;
+        if (needed > digests.length) {
+            digests = Arrays.copyOf(digests, Math.max(digests.length * 2, needed));
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            data[dataLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[dataLength++] = (byte) value;
+    }
+
+    /**
+     * Release any capacity which is not in use, once all entries have been added
+     *
+     * @return this
+     */
+    public CompactManifest trim() {
+        data = Arrays.copyOf(data, dataLength);
+        digests = Arrays.copyOf(digests, count * digestLength);
+        return this;
+    }
+
+    /**
+     * @return the number of entries in the manifest
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the sizes of every entry
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return the number of bytes held by the arrays backing the manifest
+     */
+    public long memoryBytes() {
+        return data.length + digests.length + previous.length;
+    }
+
+    /**
+     * Get the digest for an entry
+     *
+     * @param index the index of the entry
+     * @return the hex encoded digest
+     */
+    public String digest(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Invalid entry " + index);
+        }
+        return HEX.encode(digests, index * digestLength, digestLength);
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        return new EntryIterator();
+    }
+
+    /**
+     * A single entry read back from the manifest
+     */
+    public static class Entry {
+        private final int index;
+        private final String path;
+        private final String digest;
+        private final long size;
+
+        private Entry(int index, String path, String digest, long size) {
+            this.index = index;
+            this.path = path;
+            this.digest = digest;
+            this.size = size;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the entry formatted as a line of a manifest
+         */
+        public String toManifestLine() {
+            return digest + "  " + path;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Entry> {
+        private int index = 0;
+        private int position = 0;
+        private byte[] path = new byte[256];
+
+        @Override
+        public boolean hasNext() {
+            return index < count;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            int shared = (int) getVarint();
+            int suffix = (int) getVarint();
+            if (shared + suffix > path.length) {
+                path = Arrays.copyOf(path, Math.max(path.length * 2, shared + suffix));
+            }
+            System.arraycopy(data, position, path, shared, suffix);
+            position += suffix;
+            long size = getVarint();
+
+            Entry entry = new Entry(index, new String(path, 0, shared + suffix, UTF_8),
+                    digest(index), size);
+            ++index;
+            return entry;
+        }
+
+        private long getVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,10 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+/**
+ * How payload files are placed into a bag in the staging area
+ *
+ * @author shake
+ */
+public enum LinkMode {
+    COPY, HARDLINK, REFLINK
+}
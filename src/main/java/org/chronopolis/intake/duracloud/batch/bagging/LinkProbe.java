@@ -0,0 +1,144 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Determine if payload files can be linked or cloned from a snapshot directory into staging
+ * instead of being copied
+ *
+ * @author shake
+ */
+public class LinkProbe {
+    private static final Logger log = LoggerFactory.getLogger(LinkProbe.class);
+
+    private static final String PROBE = ".intake-link-probe";
+
+    private LinkProbe() {
+    }
+
+    /**
+     * Check which {@link LinkMode} works between two directories. Hardlinks are tried first, then
+     * copy-on-write clones if they are allowed. If neither work, {@link LinkMode#COPY} is
+     * returned.
+     * <p>
+     * Nothing is written to the source. If it has no files yet, the probe is run on a file created
+     * in the target instead, which is only valid when both directories are on the same
+     * {@link FileStore}.
+     *
+     * @param source  the directory payload files are read from
+     * @param target  the directory bags are written to
+     * @param reflink true if copy-on-write clones may be used
+     * @return the {@link LinkMode} to use
+     */
+    public static LinkMode probe(Path source, Path target, boolean reflink) {
+        LinkMode mode = LinkMode.COPY;
+        Path probe = target.resolve(PROBE);
+
+        Optional<Path> file = Optional.empty();
+        boolean created = false;
+        try {
+            Files.createDirectories(target);
+            file = findFile(source);
+            if (!file.isPresent()
+                    && Files.getFileStore(source).equals(Files.getFileStore(target))) {
+                file = Optional.of(Files.createTempFile(target, "link", ".probe"));
+                created = true;
+            }
+
+            if (file.isPresent() && hardlink(file.get(), probe)) {
+                mode = LinkMode.HARDLINK;
+            } else if (file.isPresent() && reflink && reflink(file.get(), probe)) {
+                mode = LinkMode.REFLINK;
+            }
+        } catch (IOException e) {
+            log.warn("Unable to probe for links between {} and {}", source, target, e);
+        } finally {
+            deleteQuietly(probe);
+            if (created) {
+                file.ifPresent(LinkProbe::deleteQuietly);
+            }
+        }
+
+        log.info("Using {} to place payload files from {} into {}", mode, source, target);
+        return mode;
+    }
+
+    /**
+     * Place a file into a bag using the given {@link LinkMode}. If the link cannot be created,
+     * {@link LinkMode#COPY} is returned and nothing is written so that the caller can copy the
+     * file the same way it would without links.
+     *
+     * @param mode   the {@link LinkMode} to use
+     * @param origin the file to place
+     * @param target the location in the bag
+     * @return the {@link LinkMode} which was actually used
+     * @throws IOException if an existing file at the target could not be removed
+     */
+    public static LinkMode place(LinkMode mode, Path origin, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        if (mode == LinkMode.HARDLINK && hardlink(origin, target)) {
+            return LinkMode.HARDLINK;
+        } else if (mode == LinkMode.REFLINK && reflink(origin, target)) {
+            return LinkMode.REFLINK;
+        }
+
+        return LinkMode.COPY;
+    }
+
+    private static boolean hardlink(Path origin, Path target) {
+        try {
+            Files.createLink(target, origin);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Java has no api for copy-on-write clones so defer to cp, which uses the FICLONE ioctl
+     */
+    private static boolean reflink(Path origin, Path target) {
+        ProcessBuilder builder = new ProcessBuilder("cp", "--reflink=always",
+                origin.toString(), target.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(new File("/dev/null"));
+        try {
+            Process process = builder.start();
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Optional<Path> findFile(Path source) throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            return files.filter(Files::isRegularFile).findFirst();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Unable to remove {}", path);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import java.nio.file.Path;
+
+/**
+ * A slice of a snapshot's manifest which will be written as a single bag
+ * <p>
+ * The manifest for the partition is kept on disk in the same format as the snapshot's
+ * manifest-sha256.txt so that only the entries for one bag need to be loaded at a time.
+ *
+ * @author shake
+ */
+public class ManifestPartition {
+
+    private final int index;
+    private final Path manifest;
+    private final long size;
+    private final long files;
+
+    public ManifestPartition(int index, Path manifest, long size, long files) {
+        this.index = index;
+        this.manifest = manifest;
+        this.size = size;
+        this.files = files;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Path getManifest() {
+        return manifest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+}
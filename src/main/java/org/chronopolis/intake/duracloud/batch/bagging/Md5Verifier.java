@@ -0,0 +1,107 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import org.chronopolis.intake.duracloud.batch.support.Md5Index;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Check the MD5 of each payload file, as computed while it was staged, against the snapshot's
+ * manifest-md5.txt
+ * <p>
+ * Bags for a snapshot can be written in parallel, so every check is collected here and any
+ * problems are reported for the whole snapshot once all of its bags have been written.
+ *
+ * @author shake
+ */
+public class Md5Verifier {
+
+    private static final int MAX_EXAMPLES = 20;
+
+    private final Md5Index index;
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong mismatched = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final Queue<String> examples = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create an Md5Verifier
+     *
+     * @param index the {@link Md5Index} of the snapshot's manifest-md5.txt
+     */
+    public Md5Verifier(Md5Index index) {
+        this.index = index;
+    }
+
+    /**
+     * Compare the MD5 of a payload file with manifest-md5.txt
+     *
+     * @param bag  the name of the bag the file was written to
+     * @param path the path of the file in the manifest
+     * @param md5  the MD5 computed while writing the file
+     * @return true if the MD5 matches
+     * @throws IOException if manifest-md5.txt cannot be read
+     */
+    public boolean verify(String bag, String path, HashCode md5) throws IOException {
+        checked.incrementAndGet();
+        String expected = index.md5(path);
+        if (expected == null) {
+            missing.incrementAndGet();
+            example(bag + ": " + path + " is not in the md5 manifest");
+            return false;
+        } else if (!expected.equalsIgnoreCase(md5.toString())) {
+            mismatched.incrementAndGet();
+            example(bag + ": " + path + " expected " + expected + " but was " + md5);
+            return false;
+        }
+
+        return true;
+    }
+
+    private void example(String example) {
+        // the limit may be passed by a few when bags are written in parallel, which is harmless
+        if (examples.size() < MAX_EXAMPLES) {
+            examples.add(example);
+        }
+    }
+
+    /**
+     * @return true if every payload file matched manifest-md5.txt
+     */
+    public boolean isSuccess() {
+        return mismatched.get() == 0 && missing.get() == 0;
+    }
+
+    /**
+     * @return a description of every payload file which could not be verified
+     */
+    public List<String> getProblems() {
+        ImmutableList.Builder<String> problems = ImmutableList.builder();
+        if (mismatched.get() > 0) {
+            problems.add(mismatched.get() + " files do not match the md5 manifest");
+        }
+        if (missing.get() > 0) {
+            problems.add(missing.get() + " files are not listed in the md5 manifest");
+        }
+        problems.addAll(examples);
+        return problems.build();
+    }
+
+    public long getChecked() {
+        return checked.get();
+    }
+
+    public long getMismatched() {
+        return mismatched.get();
+    }
+
+    public long getMissing() {
+        return missing.get();
+    }
+
+}
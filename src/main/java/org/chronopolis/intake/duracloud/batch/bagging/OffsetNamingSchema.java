@@ -0,0 +1,29 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import org.chronopolis.bag.NamingSchema;
+import org.chronopolis.bag.SimpleNamingSchema;
+
+/**
+ * A {@link NamingSchema} for bags which are partitioned by more than one Bagger
+ * <p>
+ * Each Bagger numbers its bags from zero, so the bags created before it are added on to keep the
+ * names the same as if the snapshot had been partitioned by a single {@link SimpleNamingSchema}.
+ *
+ * @author shake
+ */
+public class OffsetNamingSchema implements NamingSchema {
+
+    private final int offset;
+    private final NamingSchema delegate;
+
+    public OffsetNamingSchema(String snapshotId, int offset) {
+        this.offset = offset;
+        this.delegate = new SimpleNamingSchema(snapshotId);
+    }
+
+    @Override
+    public String getName(int bagNumber) {
+        return delegate.getName(offset + bagNumber);
+    }
+
+}
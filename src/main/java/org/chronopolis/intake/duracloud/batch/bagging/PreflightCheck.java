@@ -0,0 +1,215 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Check that a snapshot is complete before any bags are written
+ * <p>
+ * Every entry in the manifest is checked against the snapshot on disk, in batches which are run
+ * on the given executor. The number of files and total bytes are then compared to what the Bridge
+ * reported in the {@link SnapshotDetails}. Everything wrong with the snapshot is collected in to
+ * a single {@link Result} so it can be reported at once.
+ *
+ * @author shake
+ */
+public class PreflightCheck {
+
+    private static final int BATCH_SIZE = 1024;
+    private static final int MAX_EXAMPLES = 20;
+
+    private final Path base;
+    private final Path manifest;
+    private final Executor executor;
+    private final int concurrency;
+
+    /**
+     * Create a PreflightCheck
+     *
+     * @param base        the base directory of the snapshot
+     * @param manifest    the manifest of the snapshot
+     * @param executor    the executor to check batches of the manifest on
+     * @param concurrency the number of batches which can be queued at once
+     */
+    public PreflightCheck(Path base, Path manifest, Executor executor, int concurrency) {
+        this.base = base;
+        this.manifest = manifest;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Run the check
+     *
+     * @param details the {@link SnapshotDetails} from the Bridge, if we have them
+     * @return the {@link Result} of the check
+     * @throws IOException if the manifest cannot be read
+     */
+    public Result run(SnapshotDetails details) throws IOException {
+        Result result = new Result();
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<Result>> batches = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, UTF_8)) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE) {
+                    batches.add(submit(batch, permits));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                batches.add(submit(batch, permits));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batches.forEach(future -> future.cancel(true));
+            throw new IOException("Interrupted while checking " + manifest, e);
+        }
+
+        batches.forEach(future -> result.merge(future.join()));
+        if (details != null) {
+            result.expectedFiles = parse(details.getContentItemCount());
+            result.expectedBytes = parse(details.getTotalSizeInBytes());
+        }
+        return result;
+    }
+
+    private CompletableFuture<Result> submit(List<String> batch, Semaphore permits)
+            throws InterruptedException {
+        permits.acquire();
+        CompletableFuture<Result> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> check(batch), executor);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        future.whenComplete((result, throwable) -> permits.release());
+        return future;
+    }
+
+    private Result check(List<String> batch) {
+        Result result = new Result();
+        for (String line : batch) {
+            int split = line.indexOf(' ');
+            if (split <= 0) {
+                result.invalid++;
+                continue;
+            }
+
+            String path = line.substring(split).replaceFirst("^[ *]+", "");
+            try {
+                result.bytes += Files.size(base.resolve(path));
+                result.files++;
+            } catch (IOException | InvalidPathException e) {
+                result.missing++;
+                if (result.examples.size() < MAX_EXAMPLES) {
+                    result.examples.add(path);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Long parse(String value) {
+        try {
+            return value == null ? null : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The outcome of a pre-flight check
+     */
+    public static class Result {
+        private long files = 0;
+        private long bytes = 0;
+        private long missing = 0;
+        private long invalid = 0;
+        private Long expectedFiles = null;
+        private Long expectedBytes = null;
+        private final List<String> examples = new ArrayList<>();
+
+        private void merge(Result other) {
+            files += other.files;
+            bytes += other.bytes;
+            missing += other.missing;
+            invalid += other.invalid;
+            other.examples.stream()
+                    .limit(Math.max(0, MAX_EXAMPLES - examples.size()))
+                    .forEach(examples::add);
+        }
+
+        /**
+         * @return true if the snapshot can be bagged
+         */
+        public boolean isSuccess() {
+            return getProblems().isEmpty();
+        }
+
+        /**
+         * @return a description of everything wrong with the snapshot
+         */
+        public List<String> getProblems() {
+            ImmutableList.Builder<String> problems = ImmutableList.builder();
+            long entries = files + missing;
+            if (entries == 0 && invalid == 0) {
+                problems.add("The manifest contains no files");
+            }
+            if (missing > 0) {
+                problems.add(missing + " files in the manifest do not exist, e.g. "
+                        + String.join(", ", examples));
+            }
+            if (invalid > 0) {
+                problems.add(invalid + " lines in the manifest could not be read");
+            }
+            if (expectedFiles != null && expectedFiles != entries + invalid) {
+                problems.add("The manifest lists " + (entries + invalid)
+                        + " files but the Bridge reported " + expectedFiles);
+            }
+            if (expectedBytes != null && missing == 0 && expectedBytes != bytes) {
+                problems.add("The snapshot contains " + bytes
+                        + " bytes but the Bridge reported " + expectedBytes);
+            }
+            return problems.build();
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMissing() {
+            return missing;
+        }
+
+        public long getInvalid() {
+            return invalid;
+        }
+    }
+
+}
@@ -0,0 +1,377 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.chronopolis.bag.core.PayloadFile;
+import org.chronopolis.bag.packager.DirectoryPackager;
+import org.chronopolis.bag.packager.PackagerData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A {@link DirectoryPackager} for writing the payload of a DuraCloud snapshot into staging
+ * <p>
+ * When the source manifest is trusted, the digests from the snapshot's manifest-sha256.txt are
+ * carried into the bag instead of hashing each payload file while it is copied. Only a random
+ * sample of files are hashed, and the writer's validation will catch a digest which does not
+ * match the source manifest.
+ * <p>
+ * When a sidecar is requested, the digest of each payload file is written next to the bag in
+ * {@code <bag>.digests} so that later stages, like generating the file csv for ingestion, do not
+ * need to read the payload again.
+ * <p>
+ * When links are enabled, payload files are hardlinked or cloned into the bag instead of being
+ * copied. Files which still need to be hashed are only read, never written. A file which cannot
+ * be linked is copied the same as it would be without links.
+ * <p>
+ * When a {@link WriteThrottle} is set, every buffer which is read or written waits for the
+ * bytes per second limits and every payload file waits for the files per second limits.
+ * <p>
+ * When an {@link Md5Verifier} is set, the MD5 of every payload file is computed from the same
+ * buffer as it is copied, even for files which use a trusted digest, and is checked against the
+ * snapshot's manifest-md5.txt. It is only computed when verifying, otherwise the md5 in the
+ * sidecar is left as {@code -}.
+ *
+ * @author shake
+ */
+public class SnapshotPackager extends DirectoryPackager {
+    private final Logger log = LoggerFactory.getLogger(SnapshotPackager.class);
+
+    public static final String SIDECAR_EXTENSION = ".digests";
+    private static final String UNKNOWN = "-";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path base;
+    private boolean trusted = false;
+    private double sample = 1.0;
+    private boolean sidecar = false;
+    private LinkMode linkMode = LinkMode.COPY;
+    private WriteThrottle throttle;
+    private String bridge;
+    private Md5Verifier md5Verifier;
+
+    private final Map<String, BufferedWriter> sidecars = new ConcurrentHashMap<>();
+    private final Set<Path> written = ConcurrentHashMap.newKeySet();
+    private final AtomicLong copied = new AtomicLong();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong linked = new AtomicLong();
+    private final Map<String, AtomicLong> throttled = new ConcurrentHashMap<>();
+
+    /**
+     * Create a SnapshotPackager
+     *
+     * @param base the directory to write bags to
+     */
+    public SnapshotPackager(Path base) {
+        super(base);
+        this.base = base;
+    }
+
+    /**
+     * Use the digests in the source manifest instead of hashing payload files
+     *
+     * @param sample the fraction of payload files (0 to 1) which are still hashed
+     * @return this
+     */
+    public SnapshotPackager withTrustedManifest(double sample) {
+        this.trusted = true;
+        this.sample = sample;
+        return this;
+    }
+
+    /**
+     * Write the digests of each payload file to a sidecar next to the bag
+     *
+     * @return this
+     */
+    public SnapshotPackager withSidecar() {
+        this.sidecar = true;
+        return this;
+    }
+
+    /**
+     * Link or clone payload files into the bag instead of copying them
+     *
+     * @param linkMode the {@link LinkMode} which works between the snapshot and staging
+     * @return this
+     */
+    public SnapshotPackager withLinkMode(LinkMode linkMode) {
+        this.linkMode = linkMode;
+        return this;
+    }
+
+    /**
+     * Limit how fast payload files are written with a {@link WriteThrottle}
+     *
+     * @param throttle the {@link WriteThrottle}
+     * @param bridge   the name of the bridge the bags are for
+     * @return this
+     */
+    public SnapshotPackager withThrottle(WriteThrottle throttle, String bridge) {
+        this.throttle = throttle;
+        this.bridge = bridge;
+        return this;
+    }
+
+    /**
+     * Check the MD5 of each payload file against manifest-md5.txt as it is written
+     *
+     * @param md5Verifier the {@link Md5Verifier} for the snapshot
+     * @return this
+     */
+    public SnapshotPackager withMd5Verifier(Md5Verifier md5Verifier) {
+        this.md5Verifier = md5Verifier;
+        return this;
+    }
+
+    /**
+     * Get the location of the digest sidecar for a bag
+     *
+     * @param bag the path of the bag
+     * @return the path of the sidecar
+     */
+    public static Path sidecar(Path bag) {
+        return bag.resolveSibling(bag.getFileName() + SIDECAR_EXTENSION);
+    }
+
+    @Override
+    public HashCode writePayloadFile(PayloadFile payloadFile,
+                                     HashFunction function,
+                                     PackagerData data) {
+        boolean hash = !trusted || ThreadLocalRandom.current().nextDouble() < sample;
+        boolean link = linkMode != LinkMode.COPY;
+        boolean limited = throttle != null && throttle.isLimited(bridge);
+        boolean verify = md5Verifier != null;
+        if (hash && !sidecar && !link && !limited && !verify) {
+            verified.incrementAndGet();
+            return super.writePayloadFile(payloadFile, function, data);
+        }
+
+        HashCode digest = payloadFile.getDigest();
+        HashCode md5 = null;
+        Path origin = payloadFile.getOrigin();
+        String bag = data.getName();
+        Path target = base.resolve(bag).resolve(payloadFile.getFile());
+        try {
+            throttle(bag, 0, 1);
+            Files.createDirectories(target.getParent());
+            boolean placed = link && LinkProbe.place(linkMode, origin, target) != LinkMode.COPY;
+            if (placed) {
+                linked.incrementAndGet();
+            }
+
+            if (hash || verify) {
+                Hasher primary = function.newHasher();
+                Hasher secondary = Hashing.md5().newHasher();
+                Hasher[] hashers;
+                if (hash && verify) {
+                    hashers = new Hasher[]{primary, secondary};
+                } else if (hash) {
+                    hashers = new Hasher[]{primary};
+                } else {
+                    hashers = new Hasher[]{secondary};
+                }
+
+                if (placed) {
+                    read(bag, origin, hashers);
+                } else {
+                    copy(bag, origin, target, hashers);
+                }
+
+                if (hash) {
+                    verified.incrementAndGet();
+                    digest = primary.hash();
+                } else {
+                    copied.incrementAndGet();
+                }
+
+                if (verify) {
+                    md5 = secondary.hash();
+                    if (!md5Verifier.verify(bag, payloadFile.getFile().toString(), md5)) {
+                        log.warn("[{}] Unable to verify the MD5 of {}",
+                                bag, payloadFile.getFile());
+                    }
+                }
+            } else {
+                copied.incrementAndGet();
+                if (!placed && limited) {
+                    copy(bag, origin, target);
+                } else if (!placed) {
+                    Files.copy(origin, target, REPLACE_EXISTING);
+                }
+            }
+
+            if (sidecar) {
+                record(data.getName(), payloadFile, digest, md5);
+            }
+        } catch (IOException e) {
+            log.error("[{}] Unable to copy {}", data.getName(), payloadFile.getFile(), e);
+            throw new UncheckedIOException(e);
+        }
+
+        return digest;
+    }
+
+    /**
+     * Copy a file while passing each buffer read to the given hashers
+     *
+     * @param bag     the name of the bag being written
+     * @param origin  the file to copy
+     * @param target  the location to copy to
+     * @param hashers the hashers to update
+     * @throws IOException if there is a problem reading or writing
+     */
+    private void copy(String bag, Path origin, Path target, Hasher... hashers)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = Files.newInputStream(origin);
+             OutputStream os = Files.newOutputStream(target)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                throttle(bag, read, 0);
+                for (Hasher hasher : hashers) {
+                    hasher.putBytes(buffer, 0, read);
+                }
+                os.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Read a file which has already been placed in the bag, passing each buffer to the hashers
+     *
+     * @param bag     the name of the bag being written
+     * @param origin  the file to read
+     * @param hashers the hashers to update
+     * @throws IOException if there is a problem reading
+     */
+    private void read(String bag, Path origin, Hasher... hashers) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = Files.newInputStream(origin)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                throttle(bag, read, 0);
+                for (Hasher hasher : hashers) {
+                    hasher.putBytes(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait on the {@link WriteThrottle}, if there is one, and keep track of the time spent
+     * waiting for each bag
+     */
+    private void throttle(String bag, long bytes, int files) {
+        if (throttle != null) {
+            long nanos = throttle.acquire(bridge, bytes, files);
+            if (nanos > 0) {
+                throttled.computeIfAbsent(bag, name -> new AtomicLong()).addAndGet(nanos);
+            }
+        }
+    }
+
+    /**
+     * Write a line to the sidecar for a bag: the digest, md5, size and path of a payload file
+     */
+    private void record(String bag, PayloadFile file, HashCode digest, HashCode md5)
+            throws IOException {
+        BufferedWriter writer;
+        try {
+            writer = sidecars.computeIfAbsent(bag, name -> {
+                try {
+                    Path path = sidecar(base.resolve(name));
+                    written.add(path);
+                    return Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        String line = digest + "\t"
+                + (md5 == null ? UNKNOWN : md5.toString()) + "\t"
+                + file.getSize() + "\t"
+                + file.getFile();
+        synchronized (writer) {
+            writer.write(line);
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Flush and close any sidecars which were written
+     */
+    public void close() {
+        sidecars.forEach((bag, writer) -> {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("[{}] Unable to close digest sidecar", bag, e);
+            }
+        });
+        sidecars.clear();
+    }
+
+    /**
+     * Get the sidecars which were written. These are kept after the packager is closed so they
+     * can be removed if the bags will not be ingested.
+     *
+     * @return the paths of the sidecars
+     */
+    public Set<Path> getSidecars() {
+        return written;
+    }
+
+    /**
+     * @return the number of payload files which were hashed while being written
+     */
+    public long getVerified() {
+        return verified.get();
+    }
+
+    /**
+     * @return the number of payload files which were linked or cloned into a bag
+     */
+    public long getLinked() {
+        return linked.get();
+    }
+
+    /**
+     * @param bag the name of a bag
+     * @return the milliseconds spent waiting on the {@link WriteThrottle} while writing the bag
+     */
+    public long getThrottledMillis(String bag) {
+        AtomicLong nanos = throttled.get(bag);
+        return nanos == null ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos.get());
+    }
+
+    /**
+     * @return the number of payload files which used the digest from the source manifest
+     */
+    public long getCopied() {
+        return copied.get();
+    }
+
+}
@@ -0,0 +1,359 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Partition a snapshot's manifest into bags without holding every entry on the heap
+ * <p>
+ * The manifest is read a line at a time and each entry is sized from the snapshot on disk. Once
+ * runSize entries have been buffered, they are sorted by path and spilled to a run in the work
+ * directory. The runs are then merged back together in path order and cut into partitions of at
+ * most maxBytes and maxFiles, each of which is written as its own manifest. Capping the files
+ * keeps a snapshot of many small files from becoming one partition whose {@code PayloadManifest}
+ * does not fit on the heap. Partitions are only created as they
+ * are asked for, so the heap needed is bounded by the run size and the number of runs rather than
+ * by the number of files in the snapshot.
+ *
+ * @author shake
+ */
+public class StreamingPartitioner implements Closeable {
+    private final Logger log = LoggerFactory.getLogger(StreamingPartitioner.class);
+
+    private static final String RUN_PREFIX = "run-";
+    private static final String PARTITION_PREFIX = "partition-";
+    private static final String SEPARATOR = "\t";
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Path base;
+    private final Path manifest;
+    private final Path work;
+    private final long maxBytes;
+    private final int runSize;
+    private long maxFiles = Long.MAX_VALUE;
+
+    private final List<Path> runs = new ArrayList<>();
+    private final List<String> rejected = new ArrayList<>();
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private long files = 0;
+    private long size = 0;
+
+    /**
+     * Create a StreamingPartitioner
+     *
+     * @param base     the base directory of the snapshot
+     * @param manifest the manifest of the snapshot
+     * @param work     the directory to spill runs and write partition manifests to
+     * @param maxBytes the maximum number of payload bytes in a partition
+     * @param runSize  the number of entries to buffer before spilling a run
+     */
+    public StreamingPartitioner(Path base, Path manifest, Path work, long maxBytes, int runSize) {
+        this.base = base;
+        this.manifest = manifest;
+        this.work = work;
+        this.maxBytes = maxBytes;
+        this.runSize = Math.max(1, runSize);
+    }
+
+    /**
+     * Limit the number of files in each partition
+     *
+     * @param maxFiles the maximum number of files in a partition
+     * @return this
+     */
+    public StreamingPartitioner withMaxFiles(long maxFiles) {
+        this.maxFiles = Math.max(1, maxFiles);
+        return this;
+    }
+
+    /**
+     * Read the manifest and spill it to sorted runs in the work directory
+     * <p>
+     * Any line which cannot be parsed, or which refers to a file which does not exist, is
+     * rejected.
+     *
+     * @return this
+     * @throws IOException if the manifest cannot be read or a run cannot be written
+     */
+    public StreamingPartitioner spill() throws IOException {
+        Files.createDirectories(work);
+        List<Entry> buffer = new ArrayList<>(Math.min(runSize, INITIAL_CAPACITY));
+        try (BufferedReader reader = Files.newBufferedReader(manifest, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                Entry entry = parse(line);
+                if (entry == null) {
+                    rejected.add(line);
+                    continue;
+                }
+
+                buffer.add(entry);
+                ++files;
+                size += entry.size;
+                if (buffer.size() >= runSize) {
+                    writeRun(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+
+        if (!buffer.isEmpty()) {
+            writeRun(buffer);
+        }
+
+        log.debug("{} - spilled {} entries to {} runs", manifest, files, runs.size());
+        return this;
+    }
+
+    /**
+     * Parse a manifest line in to an Entry, sizing the file from the snapshot
+     *
+     * @return the Entry, or null if the line is invalid or the file does not exist
+     */
+    private Entry parse(String line) {
+        int split = line.indexOf(' ');
+        if (split <= 0) {
+            return null;
+        }
+
+        // skip the separator and the binary mode marker if one was written
+        int start = split;
+        while (start < line.length()
+                && (line.charAt(start) == ' ' || line.charAt(start) == '*')) {
+            ++start;
+        }
+
+        String path = line.substring(start);
+        try {
+            return new Entry(path, line.substring(0, split), Files.size(base.resolve(path)));
+        } catch (IOException | InvalidPathException e) {
+            log.warn("{} - unable to size {}", manifest, path);
+            return null;
+        }
+    }
+
+    private void writeRun(List<Entry> buffer) throws IOException {
+        buffer.sort(Comparator.comparing(entry -> entry.path));
+        Path run = work.resolve(RUN_PREFIX + runs.size());
+        try (BufferedWriter writer = Files.newBufferedWriter(run, UTF_8)) {
+            for (Entry entry : buffer) {
+                // the path goes last as it is the only field which can contain the separator
+                writer.write(entry.size + SEPARATOR + entry.digest + SEPARATOR + entry.path);
+                writer.newLine();
+            }
+        }
+        runs.add(run);
+    }
+
+    /**
+     * Merge the spilled runs and cut them into partitions. Each partition is only written when
+     * {@link Iterator#next()} is called.
+     *
+     * @return an Iterator of the {@link ManifestPartition}s, in path order
+     * @throws IOException if a run cannot be opened
+     */
+    public Iterator<ManifestPartition> partitions() throws IOException {
+        return new Merge(merge());
+    }
+
+    /**
+     * Merge the spilled runs into a {@link CompactManifest}, in path order
+     * <p>
+     * This is for when every entry needs to be seen before choosing partitions; the entries are
+     * kept in memory, but at a fraction of the size of a PayloadManifest.
+     *
+     * @return the CompactManifest
+     * @throws IOException if a run cannot be read
+     * @throws IllegalArgumentException if a digest in the manifest is not SHA-256
+     */
+    public CompactManifest compact() throws IOException {
+        CompactManifest compact = new CompactManifest();
+        PriorityQueue<Run> queue = merge();
+        while (!queue.isEmpty()) {
+            Run run = queue.poll();
+            compact.add(run.head.path, run.head.digest, run.head.size);
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+        return compact.trim();
+    }
+
+    private PriorityQueue<Run> merge() throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                Comparator.comparing(run -> run.head.path));
+        for (Path path : runs) {
+            BufferedReader reader = Files.newBufferedReader(path, UTF_8);
+            readers.add(reader);
+            Run run = new Run(reader);
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+
+        return queue;
+    }
+
+    /**
+     * Close any open runs and remove the work directory
+     */
+    @Override
+    public void close() {
+        readers.forEach(reader -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.debug("Unable to close run", e);
+            }
+        });
+        readers.clear();
+
+        if (Files.exists(work)) {
+            try (Stream<Path> paths = Files.walk(work)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        log.debug("Unable to remove {}", path);
+                    }
+                });
+            } catch (IOException e) {
+                log.warn("Unable to clean work directory {}", work, e);
+            }
+        }
+    }
+
+    /**
+     * @return the lines of the manifest which could not be partitioned
+     */
+    public List<String> getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of files in the manifest
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the total size of the files in the manifest
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of runs spilled to the work directory
+     */
+    public int getRuns() {
+        return runs.size();
+    }
+
+    private static class Entry {
+        private final String path;
+        private final String digest;
+        private final long size;
+
+        private Entry(String path, String digest, long size) {
+            this.path = path;
+            this.digest = digest;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A reader over a sorted run, holding the next entry to be merged
+     */
+    private static class Run {
+        private final BufferedReader reader;
+        private Entry head;
+
+        private Run(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        private boolean advance() throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                head = null;
+                return false;
+            }
+
+            String[] fields = line.split(SEPARATOR, 3);
+            head = new Entry(fields[2], fields[1], Long.parseLong(fields[0]));
+            return true;
+        }
+    }
+
+    private class Merge implements Iterator<ManifestPartition> {
+        private final PriorityQueue<Run> queue;
+        private int index = 0;
+
+        private Merge(PriorityQueue<Run> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public ManifestPartition next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            long partitionSize = 0;
+            long partitionFiles = 0;
+            Path partition = work.resolve(PARTITION_PREFIX + index);
+            try (BufferedWriter writer = Files.newBufferedWriter(partition, UTF_8)) {
+                // always take at least one entry so a file larger than maxBytes still ends up
+                // in a partition of its own
+                while (!queue.isEmpty()
+                        && (partitionFiles == 0
+                        || (partitionFiles < maxFiles
+                        && partitionSize + queue.peek().head.size <= maxBytes))) {
+                    Run run = queue.poll();
+                    writer.write(run.head.digest + "  " + run.head.path);
+                    writer.newLine();
+                    partitionSize += run.head.size;
+                    ++partitionFiles;
+
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return new ManifestPartition(index++, partition, partitionSize, partitionFiles);
+        }
+    }
+
+}
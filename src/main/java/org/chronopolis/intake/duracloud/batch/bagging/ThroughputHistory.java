@@ -0,0 +1,66 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import org.chronopolis.bag.metrics.Metric;
+import org.chronopolis.bag.metrics.WriteMetrics;
+
+/**
+ * The rate at which bag payloads have been written, taken from the {@link WriteMetrics} of each
+ * bag
+ * <p>
+ * An exponentially weighted average is kept so that recent writes count for more than old ones,
+ * e.g. after staging has moved to different storage. Until a bag has been written, the rate we
+ * were configured with is used.
+ *
+ * @author shake
+ */
+public class ThroughputHistory {
+
+    private static final double WEIGHT = 0.2;
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private double bytesPerSecond;
+    private long samples = 0;
+
+    /**
+     * Create a ThroughputHistory
+     *
+     * @param initial the bytes per second to use before any bags have been written
+     */
+    public ThroughputHistory(long initial) {
+        this.bytesPerSecond = Math.max(1, initial);
+    }
+
+    /**
+     * Record the payload throughput of a bag which was written
+     *
+     * @param metrics the {@link WriteMetrics} from writing the bag
+     */
+    public void record(WriteMetrics metrics) {
+        Metric payload = metrics.getPayload();
+        if (payload == null || payload.getElapsed() <= 0 || payload.getBytesWritten() <= 0) {
+            return;
+        }
+
+        double rate = payload.getBytesWritten() * (double) MILLIS_PER_SECOND
+                / payload.getElapsed();
+        synchronized (this) {
+            bytesPerSecond = samples == 0 ? rate : WEIGHT * rate + (1 - WEIGHT) * bytesPerSecond;
+            ++samples;
+        }
+    }
+
+    /**
+     * @return the bytes per second a single bag is expected to be written at
+     */
+    public synchronized long getBytesPerSecond() {
+        return (long) Math.max(1, bytesPerSecond);
+    }
+
+    /**
+     * @return the number of bags which have been recorded
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.chronopolis.intake.duracloud.config.props.BagProperties;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets limiting how fast payload files are written into staging
+ * <p>
+ * Writes are limited in bytes per second and files per second, both globally and for each bridge.
+ * A write has to wait for the global limit and then the limit of its bridge. A limit of 0 means
+ * writes are not limited. The limits can be changed at runtime over JMX.
+ *
+ * @author shake
+ */
+@ManagedResource(objectName = "org.chronopolis.intake:name=WriteThrottle",
+        description = "Limits for writing bags into staging")
+public class WriteThrottle {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Limit global = new Limit();
+    private final Map<String, Limit> bridges = new ConcurrentHashMap<>();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public WriteThrottle(BagProperties.Throttle properties) {
+        global.set(properties.getBytesPerSecond(), properties.getFilesPerSecond());
+        properties.getBridges().forEach((bridge, limit) -> bridges.computeIfAbsent(bridge,
+                name -> new Limit()).set(limit.getBytesPerSecond(), limit.getFilesPerSecond()));
+    }
+
+    /**
+     * Wait until a write is allowed under the global limit and the limit for a bridge
+     *
+     * @param bridge the name of the bridge the write is for
+     * @param bytes  the number of bytes to write
+     * @param files  the number of files to write
+     * @return the nanoseconds spent waiting
+     */
+    public long acquire(String bridge, long bytes, int files) {
+        double seconds = global.acquire(bytes, files);
+        Limit limit = bridges.get(bridge);
+        if (limit != null) {
+            seconds += limit.acquire(bytes, files);
+        }
+
+        long nanos = (long) (seconds * NANOS_PER_SECOND);
+        throttled.addAndGet(nanos);
+        return nanos;
+    }
+
+    /**
+     * @param bridge the name of a bridge
+     * @return true if writes for the bridge are limited at all
+     */
+    public boolean isLimited(String bridge) {
+        Limit limit = bridges.get(bridge);
+        return global.isLimited() || (limit != null && limit.isLimited());
+    }
+
+    @ManagedAttribute(description = "Global bytes per second, 0 for no limit")
+    public long getBytesPerSecond() {
+        return global.bytesPerSecond;
+    }
+
+    @ManagedAttribute(description = "Global bytes per second, 0 for no limit")
+    public void setBytesPerSecond(long bytesPerSecond) {
+        global.set(bytesPerSecond, global.filesPerSecond);
+    }
+
+    @ManagedAttribute(description = "Global files per second, 0 for no limit")
+    public long getFilesPerSecond() {
+        return global.filesPerSecond;
+    }
+
+    @ManagedAttribute(description = "Global files per second, 0 for no limit")
+    public void setFilesPerSecond(long filesPerSecond) {
+        global.set(global.bytesPerSecond, filesPerSecond);
+    }
+
+    @ManagedAttribute(description = "Total milliseconds writes have waited on a limit")
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttled.get());
+    }
+
+    @ManagedOperation(description = "Set the bytes and files per second for a bridge")
+    public void setBridgeLimit(String bridge, long bytesPerSecond, long filesPerSecond) {
+        bridges.computeIfAbsent(bridge, name -> new Limit()).set(bytesPerSecond, filesPerSecond);
+    }
+
+    @ManagedOperation(description = "Get the bytes and files per second for a bridge")
+    public String getBridgeLimit(String bridge) {
+        Limit limit = bridges.get(bridge);
+        return limit == null
+                ? "unlimited"
+                : limit.bytesPerSecond + " bytes/s, " + limit.filesPerSecond + " files/s";
+    }
+
+    /**
+     * A pair of token buckets, one for bytes and one for files. A bucket is null when there is
+     * no limit.
+     */
+    private static class Limit {
+        private volatile long bytesPerSecond = 0;
+        private volatile long filesPerSecond = 0;
+        private volatile RateLimiter bytes;
+        private volatile RateLimiter files;
+
+        private synchronized void set(long bytesPerSecond, long filesPerSecond) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            this.filesPerSecond = Math.max(0, filesPerSecond);
+            this.bytes = update(bytes, bytesPerSecond);
+            this.files = update(files, filesPerSecond);
+        }
+
+        private RateLimiter update(RateLimiter limiter, long rate) {
+            if (rate <= 0) {
+                return null;
+            } else if (limiter == null) {
+                return RateLimiter.create(rate);
+            }
+
+            limiter.setRate(rate);
+            return limiter;
+        }
+
+        private boolean isLimited() {
+            return bytes != null || files != null;
+        }
+
+        private double acquire(long bytes, int files) {
+            double seconds = 0;
+            RateLimiter byteLimiter = this.bytes;
+            RateLimiter fileLimiter = this.files;
+            if (fileLimiter != null && files > 0) {
+                seconds += fileLimiter.acquire(files);
+            }
+
+            // RateLimiter only takes an int, so large requests are taken in pieces
+            long remaining = bytes;
+            while (byteLimiter != null && remaining > 0) {
+                int permits = (int) Math.min(Integer.MAX_VALUE, remaining);
+                seconds += byteLimiter.acquire(permits);
+                remaining -= permits;
+            }
+            return seconds;
+        }
+    }
+
+}
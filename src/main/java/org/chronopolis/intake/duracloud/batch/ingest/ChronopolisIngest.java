@@ -1,15 +1,17 @@
 package org.chronopolis.intake.duracloud.batch.ingest;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.MoreExecutors;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import org.chronopolis.common.storage.BagStagingProperties;
+import org.chronopolis.intake.duracloud.batch.bagging.SnapshotPackager;
 import org.chronopolis.intake.duracloud.config.BridgeContext;
 import org.chronopolis.intake.duracloud.config.IntakeSettings;
 import org.chronopolis.intake.duracloud.config.props.Push;
 import org.chronopolis.intake.duracloud.model.BagData;
 import org.chronopolis.intake.duracloud.model.BagReceipt;
-import org.chronopolis.intake.duracloud.model.SimpleCallback;
+import org.chronopolis.intake.duracloud.model.CompletableCallback;
 import org.chronopolis.rest.api.BagService;
 import org.chronopolis.rest.api.DepositorService;
 import org.chronopolis.rest.api.FileService;
@@ -29,8 +31,12 @@ import retrofit2.Call;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static okhttp3.MultipartBody.Part;
 
@@ -49,6 +55,7 @@ public class ChronopolisIngest implements Runnable {
     private final BridgeContext bridgeContext;
     private final IntakeSettings settings;
     private final IngestSupplierFactory factory;
+    private final Executor csvExecutor;
     private final BagStagingProperties stagingProperties;
 
     // todo: it might be better to pass these as parameters to run (maybe as a BiFunction?)
@@ -70,8 +77,26 @@ public class ChronopolisIngest implements Runnable {
                              FileService fileService,
                              DepositorService depositorService,
                              BridgeContext bridgeContext) {
+        this(data, receipts, bags, staging, settings, stagingProperties, fileService,
+                depositorService, bridgeContext, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Create a ChronopolisIngest which generates the file csvs for its bags on a separate
+     * {@link Executor} from the one it is run on
+     */
+    public ChronopolisIngest(BagData data,
+                             List<BagReceipt> receipts,
+                             BagService bags,
+                             StagingService staging,
+                             IntakeSettings settings,
+                             BagStagingProperties stagingProperties,
+                             FileService fileService,
+                             DepositorService depositorService,
+                             BridgeContext bridgeContext,
+                             Executor csvExecutor) {
         this(data, receipts, bags, fileService, staging, depositorService, settings,
-                stagingProperties, bridgeContext, new IngestSupplierFactory());
+                stagingProperties, bridgeContext, new IngestSupplierFactory(), csvExecutor);
     }
 
     @VisibleForTesting
@@ -85,12 +110,29 @@ public class ChronopolisIngest implements Runnable {
                                 BagStagingProperties stagingProperties,
                                 BridgeContext bridgeContext,
                                 IngestSupplierFactory supplierFactory) {
+        this(data, receipts, bags, files, staging, depositors, settings, stagingProperties,
+                bridgeContext, supplierFactory, MoreExecutors.directExecutor());
+    }
+
+    @VisibleForTesting
+    protected ChronopolisIngest(BagData data,
+                                List<BagReceipt> receipts,
+                                BagService bags,
+                                FileService files,
+                                StagingService staging,
+                                DepositorService depositors,
+                                IntakeSettings settings,
+                                BagStagingProperties stagingProperties,
+                                BridgeContext bridgeContext,
+                                IngestSupplierFactory supplierFactory,
+                                Executor csvExecutor) {
         this.log = bridgeContext.getLogger();
 
         this.data = data;
         this.receipts = receipts;
         this.settings = settings;
         this.factory = supplierFactory;
+        this.csvExecutor = csvExecutor;
         this.bridgeContext = bridgeContext;
         this.stagingProperties = stagingProperties;
 
@@ -102,12 +144,62 @@ public class ChronopolisIngest implements Runnable {
 
     @Override
     public void run() {
-        if (bridgeContext.getPush() != Push.NONE) {
-            receipts.forEach(this::chronopolis);
+        ingest().join();
+    }
+
+    /**
+     * Ingest every bag of the snapshot into Chronopolis
+     * <p>
+     * Each bag goes through its own chain of http calls, and up to chron.ingestConcurrency bags
+     * are ingested at once. Nothing waits on a response; each step is started by the completion
+     * of the one before it, and only the csv generation runs on the csv {@link Executor}.
+     *
+     * @return a {@link CompletableFuture} which completes once every bag has been handled
+     */
+    public CompletableFuture<Void> ingest() {
+        if (bridgeContext.getPush() == Push.NONE || receipts.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Integer concurrency = settings.getChron().getIngestConcurrency();
+        int limit = Math.min(receipts.size(), Math.max(1, concurrency == null ? 1 : concurrency));
+        Iterator<BagReceipt> remaining = receipts.iterator();
+        List<CompletableFuture<Void>> lanes = new ArrayList<>(limit);
+        for (int i = 0; i < limit; i++) {
+            lanes.add(lane(remaining));
+        }
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Ingest receipts one after another until there are none left. Running a lane for each
+     * permit is what bounds the number of bags in flight.
+     *
+     * @param remaining the receipts which have not been started, shared between lanes
+     * @return a {@link CompletableFuture} which completes once there are no receipts left
+     */
+    private CompletableFuture<Void> lane(Iterator<BagReceipt> remaining) {
+        BagReceipt receipt;
+        synchronized (remaining) {
+            if (!remaining.hasNext()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            receipt = remaining.next();
         }
+
+        // compose from a completed future so anything thrown while starting the calls is handled
+        return CompletableFuture.completedFuture(receipt)
+                .thenCompose(this::chronopolis)
+                .handle((result, throwable) -> {
+                    if (throwable != null) {
+                        log.error("[{}] Error ingesting bag", receipt.getName(), throwable);
+                    }
+                    return result;
+                })
+                .thenCompose(result -> lane(remaining));
     }
 
-    private BagReceipt chronopolis(BagReceipt receipt) {
+    private CompletableFuture<BagReceipt> chronopolis(BagReceipt receipt) {
         String name = receipt.getName();
         String depositor = data.depositor();
 
@@ -117,15 +209,12 @@ public class ChronopolisIngest implements Runnable {
         // bag optional
         //   exists && status == DEPOSITED -> create files
         //   exists && status == INITIALIZED -> create staging
-        getBag(depositor, name).ifPresent(bag -> {
-            if (bag.getStatus() == BagStatus.DEPOSITED) {
-                createFiles(bag);
-            } else {
-                createStaging(bag);
-            }
-        });
-
-        return receipt;
+        return getBag(depositor, name)
+                .thenCompose(bag -> bag.map(found -> found.getStatus() == BagStatus.DEPOSITED
+                        ? createFiles(found)
+                        : createStaging(found))
+                        .orElseGet(() -> CompletableFuture.completedFuture(null)))
+                .thenApply(ignored -> receipt);
     }
 
     /**
@@ -133,74 +222,70 @@ public class ChronopolisIngest implements Runnable {
      *
      * @param depositor the namespace of the depositor who 'owns' the {@link Bag}
      * @param name      the name given to the {@link Bag}
-     * @return an Optional encapsulating if the {@link Bag} was found/created
+     * @return a {@link CompletableFuture} of an Optional encapsulating if the {@link Bag} was
+     * found/created
      */
-    private Optional<Bag> getBag(String depositor, String name) {
+    private CompletableFuture<Optional<Bag>> getBag(String depositor, String name) {
         Call<Bag> call = depositorService.getDepositorBag(depositor, name);
-        SimpleCallback<Bag> callback = enqueueCallback(call);
-        // must be a better way to handle this...
-        if (!callback.getResponse().isPresent()) {
-            return deposit(depositor, name);
-        }
-
-        return callback.getResponse();
+        return CompletableCallback.enqueue(call)
+                // a failed call is treated as not found, the same as an unsuccessful response
+                .exceptionally(throwable -> Optional.empty())
+                .thenCompose(bag -> bag.isPresent()
+                        ? CompletableFuture.completedFuture(bag)
+                        : deposit(depositor, name));
     }
 
     /**
      * Attempt to create a {@link Bag} in Chronopolis
+     * <p>
+     * Building the request reads the bag from the staging area, so it is done on the csv
+     * {@link Executor} rather than on the thread which completed the last http call.
      *
      * @param depositor the namespace of the Depositor for the Bag
      * @param name      the name for the Bag
-     * @return an Optional encapsulating the result of the operation
+     * @return a {@link CompletableFuture} of an Optional encapsulating the result of the operation
      */
-    private Optional<Bag> deposit(String depositor, String name) {
+    private CompletableFuture<Optional<Bag>> deposit(String depositor, String name) {
         log.info("[{}] Building ingest request for chronopolis", name);
         String bag = name + bridgeContext.getPush().getPostfix();
         Path stage = Paths.get(stagingProperties.getPosix().getPath());
         Path location = stage.resolve(data.depositor()).resolve(bag);
-        return factory.supplier(location, stage, depositor, name)
-                .get().map(bags::deposit)
-                .map(this::enqueueCallback)
-                .flatMap(SimpleCallback::getResponse);
-    }
-
-    /**
-     * Just combine some calls so we make things a bit nicer
-     *
-     * @param call the call to enqueue a callback for
-     * @param <T>  the type of the ResponseEntity of the Call
-     * @return a freshly generated callback
-     */
-    private <T> SimpleCallback<T> enqueueCallback(Call<T> call) {
-        SimpleCallback<T> callback = new SimpleCallback<>();
-        call.enqueue(callback);
-        return callback;
+        return CompletableFuture
+                .supplyAsync(() -> factory.supplier(location, stage, depositor, name).get(),
+                        csvExecutor)
+                .thenCompose(create -> create
+                        .map(bags::deposit)
+                        .map(CompletableCallback::enqueue)
+                        .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty())));
     }
 
     /**
      * Generate and upload a CSV containing the {@link File}s and {@link Fixity} for the given
-     * {@link Bag}. This will block while creating the CSV and while uploading the file to the
-     * Chronopolis Ingest Server.
+     * {@link Bag}. The CSV is created on the csv {@link Executor} as it needs to read every file in
+     * the bag, and the upload is started once it is ready.
      *
      * @param bag the Bag to create files for
+     * @return a {@link CompletableFuture} which completes once the upload has finished
      */
-    private void createFiles(Bag bag) {
+    private CompletableFuture<Void> createFiles(Bag bag) {
         log.info("[{}] Building csv file ingest request for chronopolis", bag.getName());
         Path stage = Paths.get(stagingProperties.getPosix().getPath());
         Path root = stage.resolve(bag.getDepositor()).resolve(bag.getName());
         Path output = Paths.get(settings.getChron().getWorkDirectory());
         FixityAlgorithm algorithm = FixityAlgorithm.SHA_256;
-        factory.generator(output, root, algorithm)
-                .call()
-                .getCsv()
-                .map(csv -> {
-                    RequestBody body = RequestBody.create(
-                            MediaType.parse("text/csv"),
-                            csv.toFile());
-                    Part part = Part.createFormData("file", csv.toFile().getName(), body);
-                    return files.createBatch(bag.getId(), part);
-                }).ifPresent(this::enqueueCallback);
-
+        BagFileCsvGenerator generator = factory.generator(output, root, algorithm);
+        return CompletableFuture.supplyAsync(generator::call, csvExecutor)
+                .thenCompose(result -> result.getCsv()
+                        .map(csv -> {
+                            RequestBody body = RequestBody.create(
+                                    MediaType.parse("text/csv"),
+                                    csv.toFile());
+                            Part part = Part.createFormData("file", csv.toFile().getName(), body);
+                            return files.createBatch(bag.getId(), part);
+                        })
+                        .map(CompletableCallback::enqueue)
+                        .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty())))
+                .thenApply(ignored -> null);
     }
 
     /**
@@ -211,8 +296,9 @@ public class ChronopolisIngest implements Runnable {
      * {@link BagCreate}).
      *
      * @param bag the Bag to create a {@link StagingStorage} resource for
+     * @return a {@link CompletableFuture} which completes once the resource has been created
      */
-    private void createStaging(Bag bag) {
+    private CompletableFuture<Void> createStaging(Bag bag) {
         Path stage = Paths.get(stagingProperties.getPosix().getPath());
         Path bagPath = stage.resolve(bag.getDepositor()).resolve(bag.getName());
 
@@ -229,8 +315,10 @@ public class ChronopolisIngest implements Runnable {
 
             Call<StagingStorage> createCall =
                     staging.createStorageForBag(bag.getId(), "BAG", create);
-            enqueueCallback(createCall);
+            return CompletableCallback.enqueue(createCall).thenApply(ignored -> null);
         }
+
+        return CompletableFuture.completedFuture(null);
     }
 
     /**
@@ -240,6 +328,12 @@ public class ChronopolisIngest implements Runnable {
      */
     public static class IngestSupplierFactory {
         public BagFileCsvGenerator generator(Path output, Path root, FixityAlgorithm algorithm) {
+            // use the digests computed while bagging if they are available
+            Path sidecar = SnapshotPackager.sidecar(root);
+            if (algorithm == FixityAlgorithm.SHA_256 && sidecar.toFile().exists()) {
+                return new SidecarCsvGenerator(output, root, sidecar, algorithm);
+            }
+
             return new BagFileCsvGenerator(output, root, algorithm);
         }
 
@@ -0,0 +1,123 @@
+package org.chronopolis.intake.duracloud.batch.ingest;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.chronopolis.rest.models.enums.FixityAlgorithm;
+import org.chronopolis.rest.service.BagFileCsvGenerator;
+import org.chronopolis.rest.service.BagFileCsvResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A {@link BagFileCsvGenerator} which takes the digests of payload files from the sidecar written
+ * while the bag was being created, so only the (small) tag files need to be read
+ * <p>
+ * The sidecar has a line for every payload file, so it is copied to the csv line by line and
+ * only the files outside of the payload directory are walked and hashed. Nothing is held in
+ * memory for each file in the bag. Once the csv has been created the sidecar is removed so that
+ * it is not left behind when the bag is cleaned from staging.
+ *
+ * @author shake
+ */
+public class SidecarCsvGenerator extends BagFileCsvGenerator {
+    private final Logger log = LoggerFactory.getLogger(SidecarCsvGenerator.class);
+
+    private static final String HEADER = "FILENAME,SIZE,FIXITY_VALUE,FIXITY_ALGORITHM";
+    private static final String PAYLOAD_DIRECTORY = "data";
+
+    private final Path output;
+    private final Path root;
+    private final Path sidecar;
+    private final FixityAlgorithm algorithm;
+
+    public SidecarCsvGenerator(Path output, Path root, Path sidecar, FixityAlgorithm algorithm) {
+        super(output, root, algorithm);
+        this.output = output;
+        this.root = root;
+        this.sidecar = sidecar;
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public BagFileCsvResult call() {
+        BagFileCsvResult result;
+        Path csv = output.resolve(root.getFileName() + ".csv");
+
+        try {
+            Files.createDirectories(output);
+            try (BufferedReader reader = Files.newBufferedReader(sidecar, StandardCharsets.UTF_8);
+                 BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+
+                // digest, md5, size, path
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] entry = line.split("\t", 4);
+                    if (entry.length == 4) {
+                        write(writer, entry[3], entry[2], entry[0]);
+                    }
+                }
+
+                writeTagFiles(writer);
+            }
+
+            Files.deleteIfExists(sidecar);
+            result = new BagFileCsvResult(csv);
+        } catch (IOException e) {
+            log.error("[{}] Unable to create csv from digest sidecar", root, e);
+            result = new BagFileCsvResult(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Hash and write every file in the bag outside of the payload directory
+     *
+     * @param writer the writer for the csv
+     * @throws IOException if the bag cannot be read
+     */
+    private void writeTagFiles(BufferedWriter writer) throws IOException {
+        Path payload = root.resolve(PAYLOAD_DIRECTORY);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(payload)
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                if (attrs.isRegularFile()) {
+                    write(writer, root.relativize(file).toString(),
+                            String.valueOf(attrs.size()), hash(file).toString());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void write(BufferedWriter writer, String relative, String size, String fixity)
+            throws IOException {
+        writer.write("/" + relative + "," + size + "," + fixity + "," + algorithm.getCanonical());
+        writer.newLine();
+    }
+
+    private HashCode hash(Path file) throws IOException {
+        return com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256());
+    }
+
+}
@@ -0,0 +1,204 @@
+package org.chronopolis.intake.duracloud.batch.journal;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.model.BagReceipt;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A {@link JobJournal} which appends each entry as a line of json to a file on disk
+ * <p>
+ * Each entry is forced to disk before {@link #record} returns so that a crash can lose at most
+ * the entry which was being written. A partially written line is skipped when the journal is
+ * read back. The journal is compacted when it is opened and after every {@code threshold}
+ * appends so that it only holds the latest entry for snapshots which are still in progress.
+ *
+ * @author shake
+ */
+public class FileJobJournal implements JobJournal {
+    private final Logger log = LoggerFactory.getLogger(FileJobJournal.class);
+
+    private static final String JOURNAL = "journal.log";
+    private static final String COMPACT = "journal.log.compact";
+
+    private final Gson gson = new Gson();
+    private final Map<String, JournalEntry> entries = new LinkedHashMap<>();
+
+    private final Path journal;
+    private final Path compact;
+    private final int threshold;
+
+    private int appended = 0;
+    private FileChannel channel;
+
+    /**
+     * Open (or create) a journal in the given directory
+     *
+     * @param directory the directory to keep the journal in
+     * @param threshold the number of appends between compactions
+     */
+    public FileJobJournal(Path directory, int threshold) {
+        this.journal = directory.resolve(JOURNAL);
+        this.compact = directory.resolve(COMPACT);
+        this.threshold = threshold;
+
+        try {
+            Files.createDirectories(directory);
+            rehydrate();
+            compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open job journal " + journal, e);
+        }
+    }
+
+    @Override
+    public synchronized void record(String snapshotId,
+                                    BridgeContext context,
+                                    JobStage stage,
+                                    SnapshotDetails details,
+                                    List<BagReceipt> receipts) {
+        JournalEntry previous = entries.get(snapshotId);
+        JournalEntry entry = new JournalEntry()
+                .setSnapshotId(snapshotId)
+                .setBridge(context.getName())
+                .setStage(stage)
+                .setTimestamp(System.currentTimeMillis())
+                .setDetails(details == null && previous != null ? previous.getDetails() : details)
+                .setReceipts(receipts.isEmpty() && previous != null
+                        ? previous.getReceipts()
+                        : receipts);
+
+        if (stage == JobStage.DONE) {
+            entries.remove(snapshotId);
+        } else {
+            entries.put(snapshotId, entry);
+        }
+
+        try {
+            ByteBuffer line = ByteBuffer.wrap((gson.toJson(entry) + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+
+            if (++appended >= threshold) {
+                compact();
+            }
+        } catch (IOException e) {
+            // the job can still continue, it just won't be resumed if we restart
+            log.error("{} - unable to record stage {} in journal", snapshotId, stage, e);
+        }
+    }
+
+    @Override
+    public synchronized Collection<JournalEntry> pending() {
+        return ImmutableList.copyOf(entries.values());
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Error closing job journal", e);
+        }
+    }
+
+    /**
+     * Read the journal on disk, keeping the last entry seen for each snapshot
+     *
+     * @throws IOException if the journal cannot be read
+     */
+    private void rehydrate() throws IOException {
+        if (!Files.exists(journal)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JournalEntry entry = parse(line);
+                if (entry == null) {
+                    continue;
+                }
+
+                if (entry.getStage() == JobStage.DONE) {
+                    entries.remove(entry.getSnapshotId());
+                } else {
+                    entries.put(entry.getSnapshotId(), entry);
+                }
+            }
+        }
+
+        log.info("Loaded {} pending jobs from journal", entries.size());
+    }
+
+    private JournalEntry parse(String line) {
+        JournalEntry entry = null;
+        try {
+            entry = gson.fromJson(line, JournalEntry.class);
+        } catch (JsonParseException e) {
+            // most likely a line which was being written when we went down
+            log.warn("Skipping unreadable journal entry");
+        }
+
+        if (entry != null && (entry.getSnapshotId() == null || entry.getStage() == null)) {
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Rewrite the journal so that it only contains the latest entry for each pending snapshot
+     *
+     * @throws IOException if the compacted journal cannot be written
+     */
+    private void compact() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(compact, StandardCharsets.UTF_8)) {
+            for (JournalEntry entry : entries.values()) {
+                writer.write(gson.toJson(entry));
+                writer.newLine();
+            }
+        }
+
+        try (FileChannel sync = FileChannel.open(compact, WRITE)) {
+            sync.force(true);
+        }
+
+        Files.move(compact, journal, ATOMIC_MOVE, REPLACE_EXISTING);
+        channel = FileChannel.open(journal, CREATE, WRITE, APPEND);
+        appended = 0;
+    }
+
+}
@@ -0,0 +1,39 @@
+package org.chronopolis.intake.duracloud.batch.journal;
+
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.model.BagReceipt;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Record the stage each snapshot has reached so that work can be picked up again after a restart
+ *
+ * @author shake
+ */
+public interface JobJournal {
+
+    /**
+     * Record that a snapshot has reached a new stage
+     *
+     * @param snapshotId the id of the snapshot
+     * @param context    the {@link BridgeContext} the snapshot belongs to
+     * @param stage      the {@link JobStage} which was reached
+     * @param details    the {@link SnapshotDetails} of the snapshot, if known
+     * @param receipts   the {@link BagReceipt}s of the snapshot, if it has been bagged
+     */
+    void record(String snapshotId,
+                BridgeContext context,
+                JobStage stage,
+                SnapshotDetails details,
+                List<BagReceipt> receipts);
+
+    /**
+     * @return the latest {@link JournalEntry} for each snapshot which is not {@link JobStage#DONE}
+     */
+    Collection<JournalEntry> pending();
+
+    void close();
+
+}
@@ -0,0 +1,10 @@
+package org.chronopolis.intake.duracloud.batch.journal;
+
+/**
+ * The stages a snapshot moves through while being processed by the SnapshotJobManager
+ *
+ * @author shake
+ */
+public enum JobStage {
+    QUEUED, BAGGING, BAGGED, INGESTING, CHECKING, DONE
+}
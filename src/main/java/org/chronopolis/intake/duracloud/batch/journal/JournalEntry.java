@@ -0,0 +1,77 @@
+package org.chronopolis.intake.duracloud.batch.journal;
+
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.model.BagReceipt;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+
+import java.util.List;
+
+/**
+ * A single line in the {@link JobJournal}: the stage a snapshot reached and what is needed to
+ * continue on from it
+ *
+ * @author shake
+ */
+public class JournalEntry {
+
+    private String snapshotId;
+    private String bridge;
+    private JobStage stage;
+    private Long timestamp;
+    private SnapshotDetails details;
+    private List<BagReceipt> receipts = ImmutableList.of();
+
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public JournalEntry setSnapshotId(String snapshotId) {
+        this.snapshotId = snapshotId;
+        return this;
+    }
+
+    public String getBridge() {
+        return bridge;
+    }
+
+    public JournalEntry setBridge(String bridge) {
+        this.bridge = bridge;
+        return this;
+    }
+
+    public JobStage getStage() {
+        return stage;
+    }
+
+    public JournalEntry setStage(JobStage stage) {
+        this.stage = stage;
+        return this;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public JournalEntry setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    public SnapshotDetails getDetails() {
+        return details;
+    }
+
+    public JournalEntry setDetails(SnapshotDetails details) {
+        this.details = details;
+        return this;
+    }
+
+    public List<BagReceipt> getReceipts() {
+        return receipts;
+    }
+
+    public JournalEntry setReceipts(List<BagReceipt> receipts) {
+        this.receipts = receipts;
+        return this;
+    }
+}
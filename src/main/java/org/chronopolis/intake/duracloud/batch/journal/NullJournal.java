@@ -0,0 +1,34 @@
+package org.chronopolis.intake.duracloud.batch.journal;
+
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.model.BagReceipt;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link JobJournal} which does not record anything
+ *
+ * @author shake
+ */
+public class NullJournal implements JobJournal {
+
+    @Override
+    public void record(String snapshotId,
+                       BridgeContext context,
+                       JobStage stage,
+                       SnapshotDetails details,
+                       List<BagReceipt> receipts) {
+    }
+
+    @Override
+    public Collection<JournalEntry> pending() {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,224 @@
+package org.chronopolis.intake.duracloud.batch.support;
+
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Splits the content-properties.json from a DuraCloud snapshot so that each bag only carries the
+ * content items for its own files
+ * <p>
+ * The properties are a json array of objects, each keyed by the id of a content item. The file is
+ * read once for the whole snapshot with a pull parser. The bag for each content item is found
+ * with a single lookup in the {@link Md5Index}, and the item is copied token by token to the
+ * content-properties.json for that bag in the work directory, so only one item is held at a time.
+ * <p>
+ * An item which is not a payload file of the snapshot at all (e.g. the
+ * .collection-snapshot.properties) is copied to every bag so that nothing is lost by splitting
+ * the file across bags.
+ *
+ * @author shake
+ */
+public class ContentProperties {
+
+    private static final String PAYLOAD_PREFIX = "data/";
+    private static final String BAG_PREFIX = "bag-";
+    private static final String INDENT = "  ";
+
+    private final Path properties;
+    private final Path work;
+
+    /**
+     * Create a ContentProperties
+     *
+     * @param properties the content-properties.json of the snapshot
+     * @param work       the directory to write the content-properties.json for each bag to
+     */
+    public ContentProperties(Path properties, Path work) {
+        this.properties = properties;
+        this.work = work;
+    }
+
+    /**
+     * Get the location of the content-properties.json for a bag
+     *
+     * @param bag the index of the bag
+     * @return the path of the content-properties.json, which exists once the properties are split
+     */
+    public Path forBag(int bag) {
+        return work.resolve(BAG_PREFIX + bag).resolve(properties.getFileName());
+    }
+
+    /**
+     * Split the properties across bags
+     *
+     * @param index the {@link Md5Index} of the snapshot, with the files of each bag assigned
+     * @param bags  the number of bags
+     * @throws IOException if the properties cannot be read or a bag's properties written
+     */
+    public void split(Md5Index index, int bags) throws IOException {
+        List<Writer> outputs = new ArrayList<>(bags);
+        List<JsonWriter> writers = new ArrayList<>(bags);
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(properties, UTF_8))) {
+            for (int bag = 0; bag < bags; bag++) {
+                Path path = forBag(bag);
+                Files.createDirectories(path.getParent());
+                Writer output = Files.newBufferedWriter(path, UTF_8);
+                outputs.add(output);
+                JsonWriter writer = new JsonWriter(output);
+                writers.add(writer);
+                writer.setIndent(INDENT);
+                writer.beginArray();
+            }
+
+            reader.beginArray();
+            boolean[] open = new boolean[bags];
+            while (reader.hasNext()) {
+                item(reader, index, writers, open);
+            }
+            reader.endArray();
+
+            for (JsonWriter writer : writers) {
+                writer.endArray();
+            }
+            for (Writer output : outputs) {
+                output.close();
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Unexpected content in " + properties, e);
+        } finally {
+            // the outputs are already closed unless the split failed
+            for (Writer output : outputs) {
+                try {
+                    output.close();
+                } catch (IOException ignored) {
+                    // the exception from the split is the one which is thrown
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy each entry of the next item to the bags it belongs in
+     *
+     * @param open which bags have started an object for the item
+     */
+    private void item(JsonReader reader,
+                      Md5Index index,
+                      List<JsonWriter> writers,
+                      boolean[] open) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String id = reader.nextName();
+            int bag = index.bag((PAYLOAD_PREFIX + id).getBytes(UTF_8));
+
+            int start;
+            int end;
+            if (bag == Md5Index.NOT_INDEXED) {
+                start = 0;
+                end = writers.size();
+            } else if (bag >= 0 && bag < writers.size()) {
+                start = bag;
+                end = bag + 1;
+            } else {
+                reader.skipValue();
+                continue;
+            }
+
+            for (int i = start; i < end; i++) {
+                if (!open[i]) {
+                    writers.get(i).beginObject();
+                    open[i] = true;
+                }
+                writers.get(i).name(id);
+            }
+            copy(reader, writers, start, end);
+        }
+        reader.endObject();
+
+        for (int i = 0; i < open.length; i++) {
+            if (open[i]) {
+                writers.get(i).endObject();
+                open[i] = false;
+            }
+        }
+    }
+
+    /**
+     * Copy the next value from the reader to a range of the writers
+     */
+    private void copy(JsonReader reader, List<JsonWriter> writers, int start, int end)
+            throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                for (int i = start; i < end; i++) {
+                    writers.get(i).beginObject();
+                }
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    for (int i = start; i < end; i++) {
+                        writers.get(i).name(name);
+                    }
+                    copy(reader, writers, start, end);
+                }
+                reader.endObject();
+                for (int i = start; i < end; i++) {
+                    writers.get(i).endObject();
+                }
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                for (int i = start; i < end; i++) {
+                    writers.get(i).beginArray();
+                }
+                while (reader.hasNext()) {
+                    copy(reader, writers, start, end);
+                }
+                reader.endArray();
+                for (int i = start; i < end; i++) {
+                    writers.get(i).endArray();
+                }
+                break;
+            case STRING:
+                String string = reader.nextString();
+                for (int i = start; i < end; i++) {
+                    writers.get(i).value(string);
+                }
+                break;
+            case NUMBER:
+                // keep the number as it was written
+                LazilyParsedNumber number = new LazilyParsedNumber(reader.nextString());
+                for (int i = start; i < end; i++) {
+                    writers.get(i).value(number);
+                }
+                break;
+            case BOOLEAN:
+                boolean bool = reader.nextBoolean();
+                for (int i = start; i < end; i++) {
+                    writers.get(i).value(bool);
+                }
+                break;
+            case NULL:
+                reader.nextNull();
+                for (int i = start; i < end; i++) {
+                    writers.get(i).nullValue();
+                }
+                break;
+            default:
+                throw new IOException("Unexpected " + token + " in " + properties);
+        }
+    }
+
+}
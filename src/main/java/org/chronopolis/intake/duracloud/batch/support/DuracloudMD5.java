@@ -5,20 +5,30 @@ import org.chronopolis.intake.duracloud.config.BridgeContext;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
- * Collapse under the weight of time
+ * The manifest-md5.txt from a DuraCloud snapshot, optionally filtered to only some of its lines
+ * <p>
+ * The filtered manifest is never held in memory. Its size is found by a single pass over the
+ * file, and {@link #getInputStream()} streams the matching lines from disk again. Lines are
+ * passed through as the bytes they were read as, so nothing is encoded along the way; the only
+ * decoding is of each line into a reused buffer for the predicate. When an {@link Md5Index} is
+ * used instead, the lines are read directly from their offsets in the manifest.
  *
  * TODO: This isn't serializable which can mess with the BagWriter
  *       we'll want to get that in check
@@ -28,11 +38,15 @@ import java.util.stream.Stream;
 public class DuracloudMD5 extends OnDiskTagFile {
     private final Logger log;
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
     private final String path;
-    private transient Predicate<String> predicate;
+    private transient Predicate<CharSequence> predicate;
+    private transient Md5Index.Selection selection;
 
     private Long size;
-    private List<String> collection;
 
     public DuracloudMD5(Path tag, BridgeContext context) {
         super(tag);
@@ -40,26 +54,44 @@ public class DuracloudMD5 extends OnDiskTagFile {
         this.log = context.getLogger();
     }
 
-    // TODO: Can probably combine this + update stream and discard the predicate when we're done
-    public void setPredicate(Predicate<String> predicate) {
+    /**
+     * Only include the lines of the manifest which match a predicate. The line passed to the
+     * predicate is only valid until it returns, so call toString if it needs to be kept.
+     *
+     * @param predicate the predicate to test each line with
+     */
+    public void setPredicate(Predicate<CharSequence> predicate) {
         this.predicate = predicate;
-        updateStream();
+        updateSize();
+    }
+
+    /**
+     * Only include the lines of the manifest for the files listed in another manifest, looking
+     * them up in an {@link Md5Index} rather than scanning the md5 manifest
+     *
+     * @param index the index of the md5 manifest
+     * @param files the manifest of the files to include
+     * @throws IOException if the manifest of files cannot be read
+     */
+    public void setIndex(Md5Index index, Path files) throws IOException {
+        this.selection = index.select(files);
+        this.size = selection.getSize();
     }
 
-    private void updateStream() {
-        // Make sure our file gets closed
-        try (Stream<String> s = Files.lines(Paths.get(path))) {
-            collection = s.filter(predicate)
-                    .collect(Collectors.toList());
+    private void updateSize() {
+        long total = 0;
+        try (LineReader reader = new LineReader(Files.newInputStream(Paths.get(path)))) {
+            while (reader.next()) {
+                if (predicate.test(reader.chars())) {
+                    total += reader.length() + 1;
+                }
+            }
         } catch (IOException e) {
             log.error("Error reading duracloud md5 manifest");
-
-            // ...? Not sure of the best way to handle this
-            throw new RuntimeException("");
+            throw new UncheckedIOException(e);
         }
 
-        size = collection.stream()
-                .reduce(0L, (l, s) -> l + (s + "\n").getBytes().length, (l, r) -> l + r);
+        size = total;
     }
 
     @Override
@@ -73,38 +105,206 @@ public class DuracloudMD5 extends OnDiskTagFile {
 
     @Override
     public InputStream getInputStream() {
-        if (collection != null) {
-            return new IteratorInputStream(collection.iterator());
+        if (selection != null) {
+            return selection.newInputStream();
+        } else if (predicate != null) {
+            try {
+                return new FilteredInputStream(
+                        new LineReader(Files.newInputStream(Paths.get(path))), predicate);
+            } catch (IOException e) {
+                log.error("Error reading duracloud md5 manifest");
+                throw new UncheckedIOException(e);
+            }
         }
 
         return super.getInputStream();
     }
 
-    class IteratorInputStream extends InputStream {
+    /**
+     * Reads a stream one line at a time into a reused buffer
+     */
+    static class LineReader implements Closeable {
+        private final InputStream input;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+        private long consumed = 0;
+
+        private byte[] line = new byte[256];
+        private int length = 0;
+        private long offset = 0;
+
+        private final CharsetDecoder decoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private CharBuffer chars = CharBuffer.allocate(256);
+
+        LineReader(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * Read the next line, without its line terminator
+         *
+         * @return false if there are no more lines
+         * @throws IOException if the stream cannot be read
+         */
+        boolean next() throws IOException {
+            length = 0;
+            offset = consumed + position;
+            boolean read = false;
+            while (true) {
+                if (position == limit) {
+                    consumed += limit;
+                    limit = input.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return read;
+                    }
+                }
+
+                read = true;
+                int start = position;
+                while (position < limit && buffer[position] != NEWLINE) {
+                    ++position;
+                }
+                append(start, position - start);
+
+                if (position < limit) {
+                    // skip the newline and drop a carriage return before it
+                    ++position;
+                    if (length > 0 && line[length - 1] == CARRIAGE_RETURN) {
+                        --length;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        private void append(int start, int count) {
+            if (length + count > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+            }
+            System.arraycopy(buffer, start, line, length, count);
+            length += count;
+        }
+
+        byte[] line() {
+            return line;
+        }
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * @return the offset of the current line in the stream
+         */
+        long offset() {
+            return offset;
+        }
+
+        /**
+         * @return the current line decoded into a reused buffer
+         */
+        CharSequence chars() {
+            if (chars.capacity() < length) {
+                chars = CharBuffer.allocate(Math.max(chars.capacity() * 2, length));
+            }
+
+            chars.clear();
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(line, 0, length), chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            return chars;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Streams the lines of a {@link LineReader} which match a predicate, each followed by a
+     * newline
+     */
+    static class FilteredInputStream extends InputStream {
+        private final LineReader reader;
+        private final Predicate<CharSequence> predicate;
 
-        private Iterator<String> iterator;
-        private ByteBuffer current;
+        private int position = 0;
+        private boolean newline = false;
+        private boolean done = false;
 
-        public IteratorInputStream(Iterator<String> iterator) {
-            this.iterator = iterator;
+        FilteredInputStream(LineReader reader, Predicate<CharSequence> predicate) {
+            this.reader = reader;
+            this.predicate = predicate;
+        }
+
+        /**
+         * Make sure there is something left to read from the current line
+         *
+         * @return false once every line has been read
+         */
+        private boolean fill() throws IOException {
+            while (!done && position == reader.length() && !newline) {
+                if (!reader.next()) {
+                    done = true;
+                } else if (predicate.test(reader.chars())) {
+                    position = 0;
+                    newline = true;
+                } else {
+                    position = reader.length();
+                }
+            }
+            return !done;
         }
 
         @Override
-        public int read() {
-            if ((current == null || !current.hasRemaining()) && !iterator.hasNext()) {
+        public int read() throws IOException {
+            if (!fill()) {
                 return -1;
-            } else if ((current == null || !current.hasRemaining()) && iterator.hasNext()) {
-                String next = iterator.next() + "\n";
-                current = ByteBuffer.wrap(next.getBytes());
             }
 
-            return current.get();
+            if (position < reader.length()) {
+                return reader.line()[position++] & 0xFF;
+            }
+
+            newline = false;
+            return NEWLINE;
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+
+            int copied = 0;
+            while (copied < len && fill()) {
+                int remaining = reader.length() - position;
+                if (remaining > 0) {
+                    int count = Math.min(remaining, len - copied);
+                    System.arraycopy(reader.line(), position, b, off + copied, count);
+                    position += count;
+                    copied += count;
+                } else {
+                    b[off + copied++] = NEWLINE;
+                    newline = false;
+                }
+            }
+
+            return copied == 0 ? -1 : copied;
         }
 
         @Override
-        public int read(@NotNull byte[] b) {
-           current.get(b);
-           return b.length;
+        public void close() throws IOException {
+            reader.close();
         }
     }
 
@@ -0,0 +1,619 @@
+package org.chronopolis.intake.duracloud.batch.support;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An index of where each path is in a snapshot's manifest-md5.txt
+ * <p>
+ * The index is an open addressed hash table in a memory mapped file, holding the hash of each
+ * path with the offset and length of its line. It is built once for a snapshot, after which the
+ * md5 lines for a bag are found by looking up only the files in that bag and reading those
+ * ranges of the manifest. Splitting the manifest across every bag is then proportional to the
+ * number of lines in it, no matter how many bags there are.
+ * <p>
+ * Each path can also be assigned to the bag it was partitioned into, so that other files which
+ * are split across bags, like content-properties.json, can find the bag for a path with a single
+ * lookup.
+ * <p>
+ * Slots are found by a 64 bit hash of the path. As two paths can share a hash, the line in a slot
+ * is read back from the manifest and its path compared before it is used, and probing continues
+ * past any slot whose path differs. A single mapping is limited to 2GB,
+ * so the table is split into segments of 2^26 slots which are each mapped on their own, allowing
+ * for about a billion lines.
+ * <p>
+ * The table is unmapped when the index is closed rather than waiting on the garbage collector,
+ * which does not see how large it is. Lookups are guarded by a lock so that nothing can read the
+ * table once it has been unmapped.
+ *
+ * @author shake
+ */
+public class Md5Index implements Closeable {
+
+    /**
+     * Returned by {@link #bag(byte[])} for a path which is not in the index
+     */
+    public static final int NOT_INDEXED = -1;
+
+    /**
+     * Returned by {@link #bag(byte[])} for a path which is not assigned to a bag
+     */
+    public static final int UNASSIGNED = -2;
+
+    private static final int RECORD_SIZE = 24;
+    private static final int OFFSET_FIELD = 8;
+    private static final int LENGTH_FIELD = 16;
+    private static final int BAG_FIELD = 20;
+    private static final int MIN_CAPACITY = 16;
+    private static final int SEGMENT_BITS = 26;
+    private static final long MAX_CAPACITY = 1L << 31;
+    private static final int LENGTH_BITS = 24;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+    private static final long MAX_OFFSET = Long.MAX_VALUE >>> LENGTH_BITS;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte NEWLINE = '\n';
+
+    private final FileChannel manifest;
+    private final MappedByteBuffer[] segments;
+    private final int segmentBits;
+    private final long segmentMask;
+    private final long mask;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed = false;
+    private int entries = 0;
+
+    private Md5Index(FileChannel manifest,
+                     MappedByteBuffer[] segments,
+                     int segmentBits,
+                     long capacity) {
+        this.manifest = manifest;
+        this.segments = segments;
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1L << segmentBits) - 1;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Build the index for a manifest
+     *
+     * @param manifest the manifest-md5.txt to index
+     * @param index    the file to write the index to
+     * @return the Md5Index
+     * @throws IOException if the manifest cannot be read or the index cannot be written
+     */
+    public static Md5Index build(Path manifest, Path index) throws IOException {
+        return build(manifest, index, SEGMENT_BITS);
+    }
+
+    @VisibleForTesting
+    static Md5Index build(Path manifest, Path index, int segmentBits) throws IOException {
+        long lines = 0;
+        try (DuracloudMD5.LineReader reader =
+                     new DuracloudMD5.LineReader(Files.newInputStream(manifest))) {
+            while (reader.next()) {
+                ++lines;
+            }
+        }
+
+        long wanted = Math.max(MIN_CAPACITY, lines * 2);
+        long capacity = Long.highestOneBit(wanted - 1) << 1;
+        if (capacity > MAX_CAPACITY) {
+            throw new IOException("Too many lines to index in " + manifest + ": " + lines);
+        }
+
+        Files.createDirectories(index.toAbsolutePath().getParent());
+        long segmentSlots = Math.min(capacity, 1L << segmentBits);
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) (capacity / segmentSlots)];
+        try (FileChannel channel =
+                     FileChannel.open(index, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            long segmentSize = segmentSlots * RECORD_SIZE;
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        i * segmentSize, segmentSize);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (MappedByteBuffer segment : segments) {
+                if (segment != null) {
+                    unmap(segment);
+                }
+            }
+            throw e;
+        }
+
+        FileChannel channel = FileChannel.open(manifest, READ);
+        Md5Index md5Index = new Md5Index(channel, segments, segmentBits, capacity);
+        try (DuracloudMD5.LineReader reader =
+                     new DuracloudMD5.LineReader(Files.newInputStream(manifest))) {
+            while (reader.next()) {
+                md5Index.add(reader);
+            }
+        } catch (IOException | RuntimeException e) {
+            md5Index.close();
+            throw e;
+        }
+
+        return md5Index;
+    }
+
+    private void add(DuracloudMD5.LineReader reader) throws IOException {
+        int start = pathStart(reader.line(), reader.length());
+        if (start < 0) {
+            return;
+        }
+
+        if (reader.length() > LENGTH_MASK || reader.offset() > MAX_OFFSET) {
+            throw new IOException("Unable to index line at offset " + reader.offset());
+        }
+
+        long hash = hash(reader.line(), start, reader.length());
+        long slot = hash & mask;
+        while (getInt(slot, LENGTH_FIELD) != 0) {
+            if (getLong(slot, 0) == hash && matches(slot, reader.line(), start, reader.length())) {
+                // keep the first line for a path
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        putLong(slot, 0, hash);
+        putLong(slot, OFFSET_FIELD, reader.offset());
+        putInt(slot, LENGTH_FIELD, reader.length());
+        ++entries;
+    }
+
+    /**
+     * Find the slot for a path
+     *
+     * @return the slot, or -1 if the path is not in the index
+     * @throws IOException if the line for a slot cannot be read from the manifest
+     */
+    private long find(byte[] line, int start, int end) throws IOException {
+        long hash = hash(line, start, end);
+        long slot = hash & mask;
+        while (getInt(slot, LENGTH_FIELD) != 0) {
+            if (getLong(slot, 0) == hash && matches(slot, line, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Check that the line in a slot is for the same path, not only one with the same hash
+     */
+    private boolean matches(long slot, byte[] path, int start, int end) throws IOException {
+        int length = getInt(slot, LENGTH_FIELD);
+        byte[] line = readLine(getLong(slot, OFFSET_FIELD), length);
+        int lineStart = pathStart(line, length);
+        if (lineStart < 0 || length - lineStart != end - start) {
+            return false;
+        }
+
+        for (int i = 0; i < end - start; i++) {
+            if (line[lineStart + i] != path[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] readLine(long offset, int length) throws IOException {
+        ByteBuffer line = ByteBuffer.allocate(length);
+        while (line.hasRemaining()) {
+            if (manifest.read(line, offset + line.position()) < 0) {
+                throw new EOFException("Unable to read the manifest at offset " + offset);
+            }
+        }
+        return line.array();
+    }
+
+    private MappedByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> segmentBits)];
+    }
+
+    private int position(long slot, int field) {
+        return (int) (slot & segmentMask) * RECORD_SIZE + field;
+    }
+
+    private long getLong(long slot, int field) {
+        return segment(slot).getLong(position(slot, field));
+    }
+
+    private int getInt(long slot, int field) {
+        return segment(slot).getInt(position(slot, field));
+    }
+
+    private void putLong(long slot, int field, long value) {
+        segment(slot).putLong(position(slot, field), value);
+    }
+
+    private void putInt(long slot, int field, int value) {
+        segment(slot).putInt(position(slot, field), value);
+    }
+
+    /**
+     * Select the md5 lines for the files in another manifest, such as the manifest of a single
+     * bag. Files which are not in the index are skipped.
+     *
+     * @param files a manifest listing the files to select
+     * @return the {@link Selection} of md5 lines
+     * @throws IOException if the manifest cannot be read
+     */
+    public Selection select(Path files) throws IOException {
+        long[] ranges = new long[MIN_CAPACITY];
+        int count = 0;
+        long size = 0;
+        acquire();
+        try (DuracloudMD5.LineReader reader =
+                     new DuracloudMD5.LineReader(Files.newInputStream(files))) {
+            while (reader.next()) {
+                int start = pathStart(reader.line(), reader.length());
+                long slot = start < 0 ? -1 : find(reader.line(), start, reader.length());
+                if (slot < 0) {
+                    continue;
+                }
+
+                long offset = getLong(slot, OFFSET_FIELD);
+                int length = getInt(slot, LENGTH_FIELD);
+                if (count == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, count * 2);
+                }
+                ranges[count++] = (offset << LENGTH_BITS) | length;
+                size += length + 1;
+            }
+        } finally {
+            release();
+        }
+
+        // read the manifest front to back
+        long[] sorted = Arrays.copyOf(ranges, count);
+        Arrays.sort(sorted);
+        return new Selection(sorted, size);
+    }
+
+    /**
+     * Assign the files in another manifest, such as the manifest of a single bag, to a bag. Files
+     * which are not in the index are skipped.
+     *
+     * @param files a manifest listing the files in the bag
+     * @param bag   the index of the bag
+     * @return the number of files which were assigned
+     * @throws IOException if the manifest cannot be read
+     */
+    public int assign(Path files, int bag) throws IOException {
+        int assigned = 0;
+        acquire();
+        try (DuracloudMD5.LineReader reader =
+                     new DuracloudMD5.LineReader(Files.newInputStream(files))) {
+            while (reader.next()) {
+                int start = pathStart(reader.line(), reader.length());
+                long slot = start < 0 ? -1 : find(reader.line(), start, reader.length());
+                if (slot >= 0) {
+                    // zero is left for files which are not in a bag
+                    putInt(slot, BAG_FIELD, bag + 1);
+                    ++assigned;
+                }
+            }
+        } finally {
+            release();
+        }
+
+        return assigned;
+    }
+
+    /**
+     * Get the bag which a path was assigned to
+     *
+     * @param path the UTF-8 encoded path of a file, as it is written in the manifest
+     * @return the index of the bag, {@link #UNASSIGNED} if the path was not assigned to a bag, or
+     * {@link #NOT_INDEXED} if the path is not in the index
+     * @throws UncheckedIOException if the manifest cannot be read
+     */
+    public int bag(byte[] path) {
+        acquire();
+        try {
+            long slot = find(path, 0, path.length);
+            if (slot < 0) {
+                return NOT_INDEXED;
+            }
+
+            int bag = getInt(slot, BAG_FIELD);
+            return bag == 0 ? UNASSIGNED : bag - 1;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Get the md5 for a single path
+     *
+     * @param path the path of a file, as it is written in the manifest
+     * @return the md5 from the manifest, or null if the path is not in the index
+     * @throws IOException if the manifest cannot be read
+     */
+    public String md5(String path) throws IOException {
+        byte[] bytes = path.getBytes(UTF_8);
+        long offset;
+        int length;
+        acquire();
+        try {
+            long slot = find(bytes, 0, bytes.length);
+            if (slot < 0) {
+                return null;
+            }
+
+            offset = getLong(slot, OFFSET_FIELD);
+            length = getInt(slot, LENGTH_FIELD);
+        } finally {
+            release();
+        }
+
+        byte[] line = readLine(offset, length);
+        int split = 0;
+        while (split < length && line[split] != ' ') {
+            ++split;
+        }
+        return new String(line, 0, split, UTF_8);
+    }
+
+    /**
+     * @param path the path of a file, as it is written in the manifest
+     * @return true if the path is in the index
+     * @throws UncheckedIOException if the manifest cannot be read
+     */
+    public boolean contains(String path) {
+        byte[] bytes = path.getBytes(UTF_8);
+        acquire();
+        try {
+            return find(bytes, 0, bytes.length) >= 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * @return the number of paths in the index
+     */
+    public int size() {
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!closed) {
+                closed = true;
+                for (MappedByteBuffer segment : segments) {
+                    unmap(segment);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        manifest.close();
+    }
+
+    private void acquire() {
+        lock.readLock().lock();
+        if (closed) {
+            lock.readLock().unlock();
+            throw new IllegalStateException("Md5Index is closed");
+        }
+    }
+
+    private void release() {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * Release a mapping without waiting for it to be garbage collected. There is no public api
+     * for this so the buffer's cleaner is run the same way the jvm would: through
+     * Unsafe.invokeCleaner on Java 9 and later, or the Cleaner of the buffer on Java 8. If
+     * neither can be found the mapping is left for the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafe.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                invokeCleaner = null;
+            }
+
+            if (invokeCleaner != null) {
+                Field theUnsafe = unsafe.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } else {
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object instance = cleaner.invoke(buffer);
+                if (instance != null) {
+                    instance.getClass().getMethod("clean").invoke(instance);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // fall back to the garbage collector
+        }
+    }
+
+    /**
+     * Find where the path starts in a manifest line, skipping the separator and the binary mode
+     * marker if one was written
+     *
+     * @return the start of the path, or -1 if the line is invalid
+     */
+    static int pathStart(byte[] line, int length) {
+        int split = 0;
+        while (split < length && line[split] != ' ') {
+            ++split;
+        }
+
+        if (split == 0 || split == length) {
+            return -1;
+        }
+
+        int start = split;
+        while (start < length && (line[start] == ' ' || line[start] == '*')) {
+            ++start;
+        }
+        return start == length ? -1 : start;
+    }
+
+    /**
+     * FNV-1a followed by the murmur3 finalizer so that the low bits are usable as a slot
+     */
+    static long hash(byte[] bytes, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * The md5 lines for a set of files, as ranges of the manifest
+     */
+    public class Selection {
+        private final long[] ranges;
+        private final long size;
+
+        private Selection(long[] ranges, long size) {
+            this.ranges = ranges;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of lines selected
+         */
+        public int getLines() {
+            return ranges.length;
+        }
+
+        /**
+         * @return the number of bytes in the selected lines, including a newline for each
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return an InputStream which reads the selected lines from the manifest
+         */
+        public InputStream newInputStream() {
+            return new RangeInputStream(ranges);
+        }
+    }
+
+    /**
+     * Reads ranges of the manifest through a window so that nearby lines share a read
+     */
+    private class RangeInputStream extends InputStream {
+        private final long[] ranges;
+        private final ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+        private long windowStart = 0;
+        private long windowEnd = 0;
+
+        private int current = 0;
+        private int position = 0;
+
+        private RangeInputStream(long[] ranges) {
+            this.ranges = ranges;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+
+            int copied = 0;
+            while (copied < len && current < ranges.length) {
+                long offset = ranges[current] >>> LENGTH_BITS;
+                int length = (int) (ranges[current] & LENGTH_MASK);
+                if (position < length) {
+                    long at = offset + position;
+                    if (at < windowStart || at >= windowEnd) {
+                        fill(at);
+                    }
+
+                    int count = (int) Math.min(Math.min(length - position, len - copied),
+                            windowEnd - at);
+                    System.arraycopy(window.array(), (int) (at - windowStart),
+                            b, off + copied, count);
+                    position += count;
+                    copied += count;
+                } else {
+                    b[off + copied++] = NEWLINE;
+                    position = 0;
+                    ++current;
+                }
+            }
+
+            return copied == 0 ? -1 : copied;
+        }
+
+        private void fill(long at) throws IOException {
+            window.clear();
+            while (window.hasRemaining()) {
+                int read = manifest.read(window, at + window.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+
+            if (window.position() == 0) {
+                throw new EOFException("Unable to read the manifest at offset " + at);
+            }
+
+            windowStart = at;
+            windowEnd = at + window.position();
+        }
+    }
+
+}
@@ -2,16 +2,23 @@ package org.chronopolis.intake.duracloud.config;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.chronopolis.common.storage.BagStagingProperties;
 import org.chronopolis.intake.duracloud.batch.BaggingFactory;
 import org.chronopolis.intake.duracloud.batch.ChronFactory;
 import org.chronopolis.intake.duracloud.batch.SnapshotJobManager;
+import org.chronopolis.intake.duracloud.batch.bagging.WriteThrottle;
 import org.chronopolis.intake.duracloud.batch.check.DepositorCheck;
+import org.chronopolis.intake.duracloud.batch.journal.FileJobJournal;
+import org.chronopolis.intake.duracloud.batch.journal.JobJournal;
+import org.chronopolis.intake.duracloud.batch.journal.NullJournal;
 import org.chronopolis.intake.duracloud.cleaner.Bicarbonate;
 import org.chronopolis.intake.duracloud.config.inteceptor.HttpTraceInterceptor;
 import org.chronopolis.intake.duracloud.config.props.BagProperties;
+import org.chronopolis.intake.duracloud.config.props.BridgeProperties;
 import org.chronopolis.intake.duracloud.config.props.Duracloud;
+import org.chronopolis.intake.duracloud.config.props.JobProperties;
 import org.chronopolis.intake.duracloud.config.validator.ChronValidator;
 import org.chronopolis.intake.duracloud.model.BaggingHistory;
 import org.chronopolis.intake.duracloud.model.BaggingHistorySerializer;
@@ -34,7 +41,10 @@ import org.springframework.validation.Validator;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -47,7 +57,9 @@ import java.util.stream.Collectors;
 @EnableConfigurationProperties({BagStagingProperties.class,
         IngestApiProperties.class,
         IntakeSettings.class,
-        BagProperties.class})
+        BagProperties.class,
+        BridgeProperties.class,
+        JobProperties.class})
 public class BeanConfig {
 
     @Bean
@@ -71,11 +83,24 @@ public class BeanConfig {
         return new MailNotifier(settings.getSmtp());
     }
 
+    /**
+     * Exposed as a bean so that the limits can be changed at runtime over JMX
+     */
     @Bean
+    public WriteThrottle writeThrottle(BagProperties bagProperties) {
+        return new WriteThrottle(bagProperties.getThrottle());
+    }
+
+    @Bean(destroyMethod = "destroy")
     public BaggingFactory baggingFactory(Notifier notifier,
                                          BagProperties bagProperties,
-                                         BagStagingProperties bagStagingProperties) {
-        return new BaggingFactory(notifier, bagProperties, bagStagingProperties);
+                                         BagStagingProperties bagStagingProperties,
+                                         WriteThrottle writeThrottle,
+                                         List<BridgeContext> bridgeContexts) {
+        BaggingFactory factory = new BaggingFactory(notifier,
+                bagProperties, bagStagingProperties, writeThrottle);
+        factory.probeLinks(bridgeContexts);
+        return factory;
     }
 
     @Bean
@@ -98,20 +123,47 @@ public class BeanConfig {
         return new DepositorCheck(notifier, generator.depositors());
     }
 
+    @Bean
+    public JobJournal jobJournal(JobProperties jobProperties) {
+        JobProperties.Journal journal = jobProperties.getJournal();
+        return journal.getEnabled()
+                ? new FileJobJournal(Paths.get(journal.getPath()), journal.getCompactThreshold())
+                : new NullJournal();
+    }
+
     @Bean(destroyMethod = "destroy")
     public SnapshotJobManager snapshotJobManager(ChronFactory chronFactory,
                                                  BaggingFactory baggingFactory,
-                                                 DepositorCheck depositorCheck) {
-        return new SnapshotJobManager(chronFactory, baggingFactory, depositorCheck);
+                                                 DepositorCheck depositorCheck,
+                                                 JobJournal jobJournal,
+                                                 JobProperties jobProperties,
+                                                 List<BridgeContext> bridgeContexts) {
+        SnapshotJobManager manager = new SnapshotJobManager(chronFactory,
+                baggingFactory,
+                depositorCheck,
+                jobJournal,
+                jobProperties);
+        manager.resume(bridgeContexts);
+        return manager;
     }
 
     @Bean
-    public List<BridgeContext> bridgeContexts(IntakeSettings settings) {
+    public List<BridgeContext> bridgeContexts(IntakeSettings settings,
+                                              BridgeProperties bridgeProperties) {
         List<Duracloud.Bridge> bridges = settings.getDuracloud().getBridge();
 
+        // bridges are polled, journaled, and notified by name so each needs its own
+        Set<String> names = new HashSet<>();
+        for (Duracloud.Bridge bridge : bridges) {
+            if (!names.add(bridge.getName())) {
+                throw new IllegalStateException("Duplicate name for duracloud.bridge: "
+                        + bridge.getName() + ". Each bridge must have a unique name.");
+            }
+        }
+
         return bridges.stream()
                 .map(bridge -> new BridgeContext(
-                        apiFor(bridge),
+                        apiFor(bridge, bridgeProperties),
                         bridge.getPrefix(),
                         bridge.getManifest(),
                         bridge.getRestores(),
@@ -129,7 +181,7 @@ public class BeanConfig {
         return true;
     }
 
-    private BridgeAPI apiFor(Duracloud.Bridge bridge) {
+    private BridgeAPI apiFor(Duracloud.Bridge bridge, BridgeProperties bridgeProperties) {
         Gson gson = new GsonBuilder()
                 .registerTypeAdapter(History.class, new HistorySerializer())
                 .registerTypeAdapter(BaggingHistory.class, new BaggingHistorySerializer())
@@ -137,7 +189,16 @@ public class BeanConfig {
                 .disableHtmlEscaping()
                 .create();
 
+        // each async snapshot lookup has two requests in flight, so make sure the dispatcher
+        // allows for that many requests to the bridge
+        Dispatcher dispatcher = new Dispatcher();
+        if (bridgeProperties.getAsync().getEnabled()) {
+            dispatcher.setMaxRequestsPerHost(Math.max(dispatcher.getMaxRequestsPerHost(),
+                    2 * bridgeProperties.getAsync().getConcurrency()));
+        }
+
         OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
                 .addInterceptor(new HttpTraceInterceptor())
                 .addInterceptor(new OkBasicInterceptor(bridge.getUsername(), bridge.getPassword()))
                 .readTimeout(2, TimeUnit.MINUTES)
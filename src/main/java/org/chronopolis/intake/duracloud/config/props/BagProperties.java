@@ -3,6 +3,9 @@ package org.chronopolis.intake.duracloud.config.props;
 import org.chronopolis.bag.core.Unit;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Properties for configuration of a BagWriter
  *
@@ -21,6 +24,67 @@ public class BagProperties {
      */
     private Unit unit = Unit.TERABYTE;
 
+    /**
+     * Configuration for how many bags are written at the same time
+     */
+    private Write write = new Write();
+
+    /**
+     * Configuration for using the digests in the snapshot manifest without rehashing
+     */
+    private Trusted trusted = new Trusted();
+
+    /**
+     * Flag to compute every digest of a payload file while it is copied and write them to a
+     * sidecar next to the bag, so that ingestion does not need to read the payload again
+     */
+    private Boolean sidecar = false;
+
+    /**
+     * Flag to hardlink or clone payload files into staging instead of copying them. Which of the
+     * two is used is checked for each bridge at startup, and files are copied if neither work.
+     */
+    private Boolean link = false;
+
+    /**
+     * Flag to allow copy-on-write clones when payload files cannot be hardlinked. Java has no api
+     * for clones, so each payload file is cloned by running its own cp process. This is only
+     * faster than copying when files are large; for snapshots of many small files the process
+     * per file costs more than the copy it saves.
+     */
+    private Boolean reflink = false;
+
+    /**
+     * Flag to check the MD5 of each payload file, computed while it is copied, against the
+     * manifest-md5.txt from DuraCloud
+     */
+    private Boolean verifyMd5 = false;
+
+    /**
+     * How a snapshot is split into bags
+     */
+    private Partition partition = Partition.GREEDY;
+
+    /**
+     * Configuration for partitioning a snapshot without loading its entire manifest
+     */
+    private Streaming streaming = new Streaming();
+
+    /**
+     * Configuration for planning bags without writing them
+     */
+    private Estimate estimate = new Estimate();
+
+    /**
+     * Configuration for limiting how fast bags are written, globally and for each bridge
+     */
+    private Throttle throttle = new Throttle();
+
+    /**
+     * Configuration for checking a snapshot is complete before bagging it
+     */
+    private Preflight preflight = new Preflight();
+
     public Integer getMaxSize() {
         return maxSize;
     }
@@ -39,4 +103,388 @@ public class BagProperties {
         return this;
     }
 
+    public Write getWrite() {
+        return write;
+    }
+
+    public BagProperties setWrite(Write write) {
+        this.write = write;
+        return this;
+    }
+
+    public Trusted getTrusted() {
+        return trusted;
+    }
+
+    public BagProperties setTrusted(Trusted trusted) {
+        this.trusted = trusted;
+        return this;
+    }
+
+    public Boolean getSidecar() {
+        return sidecar;
+    }
+
+    public BagProperties setSidecar(Boolean sidecar) {
+        this.sidecar = sidecar;
+        return this;
+    }
+
+    public Boolean getLink() {
+        return link;
+    }
+
+    public BagProperties setLink(Boolean link) {
+        this.link = link;
+        return this;
+    }
+
+    public Boolean getReflink() {
+        return reflink;
+    }
+
+    public BagProperties setReflink(Boolean reflink) {
+        this.reflink = reflink;
+        return this;
+    }
+
+    public Boolean getVerifyMd5() {
+        return verifyMd5;
+    }
+
+    public BagProperties setVerifyMd5(Boolean verifyMd5) {
+        this.verifyMd5 = verifyMd5;
+        return this;
+    }
+
+    public Partition getPartition() {
+        return partition;
+    }
+
+    public BagProperties setPartition(Partition partition) {
+        this.partition = partition;
+        return this;
+    }
+
+    public Streaming getStreaming() {
+        return streaming;
+    }
+
+    public BagProperties setStreaming(Streaming streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    public Estimate getEstimate() {
+        return estimate;
+    }
+
+    public BagProperties setEstimate(Estimate estimate) {
+        this.estimate = estimate;
+        return this;
+    }
+
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+    public BagProperties setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+        return this;
+    }
+
+    public Preflight getPreflight() {
+        return preflight;
+    }
+
+    public BagProperties setPreflight(Preflight preflight) {
+        this.preflight = preflight;
+        return this;
+    }
+
+    /**
+     * Get the max size of a bag in bytes, counting each unit as a power of 1000 so that we never
+     * go over what the Bagger would allow
+     *
+     * @return the max size of a bag in bytes
+     */
+    public long maxBytes() {
+        int exponent;
+        switch (unit.name()) {
+            case "KILOBYTE":
+                exponent = 1;
+                break;
+            case "MEGABYTE":
+                exponent = 2;
+                break;
+            case "GIGABYTE":
+                exponent = 3;
+                break;
+            case "TERABYTE":
+                exponent = 4;
+                break;
+            case "PETABYTE":
+                exponent = 5;
+                break;
+            default:
+                exponent = 0;
+        }
+
+        long bytes = maxSize;
+        for (int i = 0; i < exponent; i++) {
+            bytes *= 1000;
+        }
+        return bytes;
+    }
+
+    /**
+     * GREEDY: fill each bag up to the max size before starting the next
+     * BALANCED: spread the snapshot evenly over a number of bags chosen from the max size and
+     * bag.write.parallel, keeping files from the same directory together
+     */
+    public enum Partition {
+        GREEDY, BALANCED
+    }
+
+    public static class Preflight {
+
+        /**
+         * Flag to check every file in the manifest exists, and that the file count and size
+         * match what the Bridge reported, before writing any bags
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The number of threads checking files, shared by all snapshots
+         */
+        private Integer threads = 8;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public Preflight setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Integer getThreads() {
+            return threads;
+        }
+
+        public Preflight setThreads(Integer threads) {
+            this.threads = threads;
+            return this;
+        }
+    }
+
+    public static class Limit {
+
+        /**
+         * The number of payload bytes which can be written each second, 0 for no limit
+         */
+        private Long bytesPerSecond = 0L;
+
+        /**
+         * The number of payload files which can be written each second, 0 for no limit
+         */
+        private Long filesPerSecond = 0L;
+
+        public Long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public Limit setBytesPerSecond(Long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Long getFilesPerSecond() {
+            return filesPerSecond;
+        }
+
+        public Limit setFilesPerSecond(Long filesPerSecond) {
+            this.filesPerSecond = filesPerSecond;
+            return this;
+        }
+    }
+
+    /**
+     * The global limit for writing bags, plus a limit for each bridge by name. All of them can
+     * be changed at runtime through the WriteThrottle MBean.
+     */
+    public static class Throttle extends Limit {
+
+        private Map<String, Limit> bridges = new HashMap<>();
+
+        public Map<String, Limit> getBridges() {
+            return bridges;
+        }
+
+        public Throttle setBridges(Map<String, Limit> bridges) {
+            this.bridges = bridges;
+            return this;
+        }
+    }
+
+    public static class Estimate {
+
+        /**
+         * Flag to only plan the bags for a snapshot and log the estimate instead of writing them.
+         * The snapshot is left as is on the bridge.
+         */
+        private Boolean dryRun = false;
+
+        /**
+         * The bytes per second a bag is expected to be written at, used until the first bag
+         * has been written
+         */
+        private Long throughput = 100L * 1024 * 1024;
+
+        public Boolean getDryRun() {
+            return dryRun;
+        }
+
+        public Estimate setDryRun(Boolean dryRun) {
+            this.dryRun = dryRun;
+            return this;
+        }
+
+        public Long getThroughput() {
+            return throughput;
+        }
+
+        public Estimate setThroughput(Long throughput) {
+            this.throughput = throughput;
+            return this;
+        }
+    }
+
+    public static class Streaming {
+
+        /**
+         * Flag to read the snapshot manifest a line at a time and create each bag as it is
+         * needed, instead of loading the entire manifest before partitioning
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The number of manifest entries to hold in memory before spilling a sorted run to disk
+         */
+        private Integer runSize = 1_000_000;
+
+        /**
+         * The maximum number of files in a bag. Each bag's manifest is loaded on its own, so this
+         * bounds the heap needed for a snapshot of many small files. This is also used when
+         * bag.partition is BALANCED.
+         */
+        private Long maxFiles = 1_000_000L;
+
+        /**
+         * The directory to spill runs and write the manifests for each bag to. This is also
+         * used when bag.partition is BALANCED.
+         */
+        private String workDirectory = "/tmp/chronopolis";
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public Streaming setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Integer getRunSize() {
+            return runSize;
+        }
+
+        public Long getMaxFiles() {
+            return maxFiles;
+        }
+
+        public Streaming setMaxFiles(Long maxFiles) {
+            this.maxFiles = maxFiles;
+            return this;
+        }
+
+        public Streaming setRunSize(Integer runSize) {
+            this.runSize = runSize;
+            return this;
+        }
+
+        public String getWorkDirectory() {
+            return workDirectory;
+        }
+
+        public Streaming setWorkDirectory(String workDirectory) {
+            this.workDirectory = workDirectory;
+            return this;
+        }
+    }
+
+    public static class Trusted {
+
+        /**
+         * Flag to carry the digests from the snapshot manifest into the bag instead of hashing
+         * every payload file while it is written
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The fraction of payload files, from 0 to 1, which are still hashed and checked against
+         * the snapshot manifest while they are written
+         */
+        private Double sample = 0.01;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public Trusted setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Double getSample() {
+            return sample;
+        }
+
+        public Trusted setSample(Double sample) {
+            this.sample = sample;
+            return this;
+        }
+    }
+
+    public static class Write {
+
+        /**
+         * The number of bags from a single snapshot which can be written at the same time
+         */
+        private Integer parallel = 1;
+
+        /**
+         * The number of bags which can be written at the same time across all snapshots
+         */
+        private Integer threads = 4;
+
+        public Integer getParallel() {
+            return parallel;
+        }
+
+        public Write setParallel(Integer parallel) {
+            this.parallel = parallel;
+            return this;
+        }
+
+        public Integer getThreads() {
+            return threads;
+        }
+
+        public Write setThreads(Integer threads) {
+            this.threads = threads;
+            return this;
+        }
+    }
+
 }
@@ -0,0 +1,297 @@
+package org.chronopolis.intake.duracloud.config.props;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Properties for how we poll the configured Duracloud Bridges
+ *
+ * @author shake
+ */
+@ConfigurationProperties(prefix = "bridge")
+public class BridgeProperties {
+
+    /**
+     * Cron expression for polling all Bridges
+     */
+    private String poll = "0 0 0 * * *";
+
+    /**
+     * How polling of the Bridges is triggered
+     */
+    private Scheduler scheduler = Scheduler.CRON;
+
+    /**
+     * Configuration for the ADAPTIVE scheduler
+     */
+    private Adaptive adaptive = new Adaptive();
+
+    /**
+     * The maximum amount of time a single Bridge may take to be polled before it is interrupted
+     */
+    private Duration timeout = Duration.ofHours(1);
+
+    /**
+     * How much of the history of a snapshot to retrieve when polling
+     */
+    private HistoryMode history = HistoryMode.FULL;
+
+    /**
+     * Configuration for processing snapshots asynchronously
+     */
+    private Async async = new Async();
+
+    /**
+     * Configuration for receiving snapshot events pushed from a Bridge
+     */
+    private Webhook webhook = new Webhook();
+
+    public String getPoll() {
+        return poll;
+    }
+
+    public BridgeProperties setPoll(String poll) {
+        this.poll = poll;
+        return this;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public BridgeProperties setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    public Adaptive getAdaptive() {
+        return adaptive;
+    }
+
+    public BridgeProperties setAdaptive(Adaptive adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public BridgeProperties setTimeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public HistoryMode getHistory() {
+        return history;
+    }
+
+    public BridgeProperties setHistory(HistoryMode history) {
+        this.history = history;
+        return this;
+    }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public BridgeProperties setAsync(Async async) {
+        this.async = async;
+        return this;
+    }
+
+    public Webhook getWebhook() {
+        return webhook;
+    }
+
+    public BridgeProperties setWebhook(Webhook webhook) {
+        this.webhook = webhook;
+        return this;
+    }
+
+    /**
+     * CRON polls every Bridge according to the poll expression, ADAPTIVE polls each Bridge on its
+     * own interval based on how much work it has
+     */
+    public enum Scheduler {
+        CRON, ADAPTIVE
+    }
+
+    /**
+     * FULL retrieves the entire history of a snapshot on each poll, LATEST only retrieves the
+     * newest history item and skips snapshots which have not changed since the last poll
+     */
+    public enum HistoryMode {
+        FULL, LATEST
+    }
+
+    public static class Async {
+
+        /**
+         * Flag to enable issuing the lookups for multiple snapshots at once
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The maximum number of snapshots to look up at once for a single Bridge
+         */
+        private Integer concurrency = 8;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public Async setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Integer getConcurrency() {
+            return concurrency;
+        }
+
+        public Async setConcurrency(Integer concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+    }
+
+    public static class Webhook {
+
+        /**
+         * Flag to enable the http endpoint for receiving snapshot events
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The address to bind the http endpoint to
+         */
+        private String address = "127.0.0.1";
+
+        /**
+         * The port to bind the http endpoint to
+         */
+        private Integer port = 8180;
+
+        /**
+         * The number of snapshot events which can be waiting to be processed before new events
+         * are refused
+         */
+        private Integer queue = 100;
+
+        /**
+         * The shared secret for each Bridge by name, which must be sent in the X-Bridge-Secret
+         * header of every event. Events for a Bridge without a secret are refused.
+         */
+        private Map<String, String> secrets = new HashMap<>();
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public Webhook setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public Webhook setAddress(String address) {
+            this.address = address;
+            return this;
+        }
+
+        public Integer getPort() {
+            return port;
+        }
+
+        public Webhook setPort(Integer port) {
+            this.port = port;
+            return this;
+        }
+
+        public Integer getQueue() {
+            return queue;
+        }
+
+        public Webhook setQueue(Integer queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        public Map<String, String> getSecrets() {
+            return secrets;
+        }
+
+        public Webhook setSecrets(Map<String, String> secrets) {
+            this.secrets = secrets;
+            return this;
+        }
+    }
+
+    public static class Adaptive {
+
+        /**
+         * The shortest amount of time to wait between polls of a Bridge
+         */
+        private Duration min = Duration.ofMinutes(5);
+
+        /**
+         * The longest amount of time to wait between polls of a Bridge
+         */
+        private Duration max = Duration.ofDays(1);
+
+        /**
+         * The factor to grow the interval by when a Bridge has no snapshots, and to shrink it by
+         * while a Bridge has snapshots in flight
+         */
+        private Double backoff = 2.0;
+
+        /**
+         * The fraction of the interval to randomly add or remove so that Bridges do not all get
+         * polled at the same time
+         */
+        private Double jitter = 0.1;
+
+        public Duration getMin() {
+            return min;
+        }
+
+        public Adaptive setMin(Duration min) {
+            this.min = min;
+            return this;
+        }
+
+        public Duration getMax() {
+            return max;
+        }
+
+        public Adaptive setMax(Duration max) {
+            this.max = max;
+            return this;
+        }
+
+        public Double getBackoff() {
+            return backoff;
+        }
+
+        public Adaptive setBackoff(Double backoff) {
+            this.backoff = backoff;
+            return this;
+        }
+
+        public Double getJitter() {
+            return jitter;
+        }
+
+        public Adaptive setJitter(Double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+    }
+}
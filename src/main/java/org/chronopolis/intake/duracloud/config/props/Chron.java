@@ -19,6 +19,11 @@ public class Chron {
 
     private String workDirectory = "/tmp/chronopolis";
 
+    /**
+     * The number of bags from a snapshot which can be ingested at the same time
+     */
+    private Integer ingestConcurrency = 4;
+
     public String getPrefix() {
         return prefix;
     }
@@ -36,4 +41,13 @@ public class Chron {
         this.workDirectory = workDirectory;
         return this;
     }
+
+    public Integer getIngestConcurrency() {
+        return ingestConcurrency;
+    }
+
+    public Chron setIngestConcurrency(Integer ingestConcurrency) {
+        this.ingestConcurrency = ingestConcurrency;
+        return this;
+    }
 }
@@ -30,7 +30,7 @@ public class Duracloud {
         private String prefix = "";
 
         /**
-         * Name to refer to this Bridge by
+         * Name to refer to this Bridge by, which must be unique
          */
         private String name = "bridge-default";
 
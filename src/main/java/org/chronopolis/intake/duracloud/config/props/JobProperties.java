@@ -0,0 +1,211 @@
+package org.chronopolis.intake.duracloud.config.props;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Properties for how the SnapshotJobManager runs its jobs
+ *
+ * @author shake
+ */
+@ConfigurationProperties(prefix = "jobs")
+public class JobProperties {
+
+    /**
+     * Configuration for the journal of jobs which are in progress
+     */
+    private Journal journal = new Journal();
+
+    /**
+     * Configuration for the order in which jobs are run on the long io pool
+     */
+    private Scheduling scheduling = new Scheduling();
+
+    /**
+     * The pool for disk bound work: writing bags and generating file csvs
+     */
+    private Pool longIo = new Pool().setThreads(4).setQueue(32);
+
+    /**
+     * The pool for http bound work: depositor checks, ingest registration and replication checks
+     */
+    private Pool shortIo = new Pool().setThreads(8).setQueue(128);
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public JobProperties setJournal(Journal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    public JobProperties setScheduling(Scheduling scheduling) {
+        this.scheduling = scheduling;
+        return this;
+    }
+
+    public Pool getLongIo() {
+        return longIo;
+    }
+
+    public JobProperties setLongIo(Pool longIo) {
+        this.longIo = longIo;
+        return this;
+    }
+
+    public Pool getShortIo() {
+        return shortIo;
+    }
+
+    public JobProperties setShortIo(Pool shortIo) {
+        this.shortIo = shortIo;
+        return this;
+    }
+
+    public enum Mode {
+        FIFO, SJF
+    }
+
+    public static class Scheduling {
+
+        /**
+         * The order to run jobs in: FIFO runs jobs in the order they were submitted, SJF runs
+         * jobs for smaller snapshots first
+         */
+        private Mode mode = Mode.FIFO;
+
+        /**
+         * The number of bytes in a snapshot which are weighted the same as one second of waiting
+         */
+        private Long agingBytes = 1024L * 1024 * 1024;
+
+        /**
+         * The number of files in a snapshot which are weighted the same as one second of waiting
+         */
+        private Long agingFiles = 10_000L;
+
+        /**
+         * The most a job can be held back because of its size so that large jobs are not starved
+         */
+        private Duration maxDelay = Duration.ofDays(2);
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public Scheduling setMode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public Long getAgingBytes() {
+            return agingBytes;
+        }
+
+        public Scheduling setAgingBytes(Long agingBytes) {
+            this.agingBytes = agingBytes;
+            return this;
+        }
+
+        public Long getAgingFiles() {
+            return agingFiles;
+        }
+
+        public Scheduling setAgingFiles(Long agingFiles) {
+            this.agingFiles = agingFiles;
+            return this;
+        }
+
+        public Duration getMaxDelay() {
+            return maxDelay;
+        }
+
+        public Scheduling setMaxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+    }
+
+    public static class Pool {
+
+        /**
+         * The number of threads in the pool
+         */
+        private Integer threads = 4;
+
+        /**
+         * The number of jobs which can be waiting for a thread, or 0 for no limit. Once the queue
+         * is full new snapshots are refused and left on the Bridge for the next poll.
+         */
+        private Integer queue = 0;
+
+        public Integer getThreads() {
+            return threads;
+        }
+
+        public Pool setThreads(Integer threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Integer getQueue() {
+            return queue;
+        }
+
+        public Pool setQueue(Integer queue) {
+            this.queue = queue;
+            return this;
+        }
+    }
+
+    public static class Journal {
+
+        /**
+         * Flag to enable recording jobs to disk so that they can be resumed after a restart
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The directory to keep the journal in
+         */
+        private String path = "/var/lib/chronopolis/bridge-intake";
+
+        /**
+         * The number of entries to append to the journal before compacting it
+         */
+        private Integer compactThreshold = 1000;
+
+        public Boolean getEnabled() {
+            return enabled;
+        }
+
+        public Journal setEnabled(Boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Journal setPath(String path) {
+            this.path = path;
+            return this;
+        }
+
+        public Integer getCompactThreshold() {
+            return compactThreshold;
+        }
+
+        public Journal setCompactThreshold(Integer compactThreshold) {
+            this.compactThreshold = compactThreshold;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.chronopolis.intake.duracloud.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Similar to the {@link SimpleCallback} but completes a {@link CompletableFuture} instead of
+ * blocking on a {@link java.util.concurrent.Phaser}, so that multiple http calls can be in flight
+ * without a thread waiting on each of them.
+ * <p>
+ * Unsuccessful responses complete with an empty Optional, and failures to communicate complete
+ * exceptionally.
+ *
+ * @author shake
+ */
+public class CompletableCallback<E> implements Callback<E> {
+    private final Logger log = LoggerFactory.getLogger(CompletableCallback.class);
+
+    private final CompletableFuture<Optional<E>> future = new CompletableFuture<>();
+
+    /**
+     * Enqueue a {@link Call} with a new {@link CompletableCallback}
+     *
+     * @param call the call to enqueue
+     * @param <E>  the type of the response body
+     * @return the {@link CompletableFuture} which will complete with the response body
+     */
+    public static <E> CompletableFuture<Optional<E>> enqueue(Call<E> call) {
+        CompletableCallback<E> callback = new CompletableCallback<>();
+        call.enqueue(callback);
+        return callback.getFuture();
+    }
+
+    @Override
+    public void onResponse(@NotNull Call<E> call, @NotNull Response<E> response) {
+        if (response.isSuccessful()) {
+            log.debug("Successfully completed HTTP call with response: {} {}",
+                    response.code(),
+                    response.message());
+            future.complete(Optional.ofNullable(response.body()));
+        } else {
+            String errorBody;
+            try {
+                errorBody = response.errorBody().string();
+            } catch (IOException e) {
+                errorBody = e.getMessage();
+                log.warn("Error writing response", e);
+            }
+            log.warn("HTTP call was not successful: {} {} {}",
+                    response.raw().request().url(),
+                    response.code(),
+                    errorBody);
+            future.complete(Optional.empty());
+        }
+    }
+
+    @Override
+    public void onFailure(@NotNull Call<E> call, @NotNull Throwable throwable) {
+        log.warn("Error in http call", throwable);
+        future.completeExceptionally(throwable);
+    }
+
+    public CompletableFuture<Optional<E>> getFuture() {
+        return future;
+    }
+}
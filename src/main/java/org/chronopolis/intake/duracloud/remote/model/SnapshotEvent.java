@@ -0,0 +1,40 @@
+package org.chronopolis.intake.duracloud.remote.model;
+
+/**
+ * A notification from the Bridge that the state of a Snapshot has changed
+ *
+ * @author shake
+ */
+public class SnapshotEvent {
+
+    private String snapshotId;
+    private SnapshotStatus status;
+    private String snapshotAction;
+
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public SnapshotEvent setSnapshotId(String snapshotId) {
+        this.snapshotId = snapshotId;
+        return this;
+    }
+
+    public SnapshotStatus getStatus() {
+        return status;
+    }
+
+    public SnapshotEvent setStatus(SnapshotStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public String getSnapshotAction() {
+        return snapshotAction;
+    }
+
+    public SnapshotEvent setSnapshotAction(String snapshotAction) {
+        this.snapshotAction = snapshotAction;
+        return this;
+    }
+}
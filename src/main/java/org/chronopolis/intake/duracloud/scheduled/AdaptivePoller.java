@@ -0,0 +1,213 @@
+package org.chronopolis.intake.duracloud.scheduled;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.BridgeProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Schedule polls for each Bridge individually instead of polling every Bridge on a fixed cron.
+ * <p>
+ * After each poll the interval for a Bridge is adjusted based on what was found:
+ * - if more snapshots were found than the last poll, something was newly staged so the interval
+ * drops to the minimum
+ * - if snapshots are still in flight, the interval shrinks by the backoff factor
+ * - if nothing was found, the interval grows by the backoff factor up to the maximum
+ * <p>
+ * Each interval has some jitter applied so that the Bridges drift apart from each other.
+ *
+ * @author shake
+ */
+@Component
+@ConditionalOnProperty(prefix = "bridge", name = "scheduler", havingValue = "adaptive")
+public class AdaptivePoller {
+
+    private final Logger log = LoggerFactory.getLogger(AdaptivePoller.class);
+    private final Logger metrics = LoggerFactory.getLogger("metrics");
+
+    private final Bridge bridge;
+    private final BridgeProperties properties;
+    private final List<BridgeContext> contexts;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Schedule> schedules = new ConcurrentHashMap<>();
+
+    public AdaptivePoller(Bridge bridge,
+                          BridgeProperties properties,
+                          List<BridgeContext> contexts) {
+        this.bridge = bridge;
+        this.properties = properties;
+        this.contexts = contexts;
+        this.scheduler = new ScheduledThreadPoolExecutor(Math.max(1, contexts.size()),
+                new ThreadFactoryBuilder().setNameFormat("adaptive-poll-%d").build());
+    }
+
+    @PostConstruct
+    public void start() {
+        Duration min = properties.getAdaptive().getMin();
+        for (BridgeContext context : contexts) {
+            Schedule schedule = new Schedule(min);
+            schedules.put(context.getName(), schedule);
+
+            // spread out the first polls over the minimum interval
+            long delay = ThreadLocalRandom.current().nextLong(min.toMillis() + 1);
+            scheduler.schedule(() -> fire(context, schedule), delay, MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        log.debug("Shutting down adaptive poller");
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Poll a Bridge, then schedule its next poll
+     *
+     * @param context  the {@link BridgeContext} to poll
+     * @param schedule the {@link Schedule} for the Bridge
+     */
+    private void fire(BridgeContext context, Schedule schedule) {
+        Logger contextLogger = context.getLogger();
+        Duration timeout = properties.getTimeout();
+        long start = System.nanoTime();
+
+        Integer found = null;
+        Future<Integer> poll = bridge.poll(context);
+        try {
+            found = poll.get(timeout.toNanos(), NANOSECONDS);
+        } catch (TimeoutException e) {
+            contextLogger.warn("[{}] Poll exceeded timeout of {}, interrupting",
+                    context.getName(), timeout);
+            poll.cancel(true);
+        } catch (InterruptedException e) {
+            poll.cancel(true);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                contextLogger.info("[{}] Poll already in progress, skipping", context.getName());
+                schedule.skipped.incrementAndGet();
+            } else {
+                contextLogger.error("[{}] Error polling bridge", context.getName(), e.getCause());
+            }
+        }
+
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        if (elapsed.compareTo(schedule.interval) > 0) {
+            schedule.overruns.incrementAndGet();
+        }
+
+        Duration delay = jitter(schedule.next(found, properties.getAdaptive()));
+        metrics.info("{},{},{},{},{},{}", context.getName(), "schedule",
+                delay.toMillis(),
+                found == null ? -1 : found,
+                schedule.skipped.get(),
+                schedule.overruns.get());
+        contextLogger.debug("[{}] Next poll in {}", context.getName(), delay);
+
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(() -> fire(context, schedule), delay.toMillis(), MILLISECONDS);
+        }
+    }
+
+    private Duration jitter(Duration interval) {
+        double jitter = properties.getAdaptive().getJitter();
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Duration.ofMillis((long) (interval.toMillis() * factor));
+    }
+
+    /**
+     * @param context the {@link BridgeContext} to get the number of skipped polls for
+     * @return the number of polls which were skipped because a poll was already in progress
+     */
+    public long getSkipped(BridgeContext context) {
+        Schedule schedule = schedules.get(context.getName());
+        return schedule == null ? 0 : schedule.skipped.get();
+    }
+
+    /**
+     * @param context the {@link BridgeContext} to get the number of overrunning polls for
+     * @return the number of polls which ran longer than the interval they were scheduled with
+     */
+    public long getOverruns(BridgeContext context) {
+        Schedule schedule = schedules.get(context.getName());
+        return schedule == null ? 0 : schedule.overruns.get();
+    }
+
+    /**
+     * The current interval and counters for a single Bridge
+     */
+    @VisibleForTesting
+    static class Schedule {
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong overruns = new AtomicLong();
+
+        private Duration interval;
+        private int lastFound = 0;
+
+        Schedule(Duration interval) {
+            this.interval = interval;
+        }
+
+        /**
+         * Update the interval based on the result of a poll
+         *
+         * @param found    the number of snapshots found, or null if the poll did not complete
+         * @param adaptive the configuration for the interval
+         * @return the interval to wait until the next poll
+         */
+        Duration next(Integer found, BridgeProperties.Adaptive adaptive) {
+            Duration min = adaptive.getMin();
+            Duration max = adaptive.getMax();
+            double backoff = adaptive.getBackoff();
+
+            if (found == null) {
+                // keep the same interval if we don't know anything new
+                return interval;
+            } else if (found > lastFound) {
+                interval = min;
+            } else if (found > 0) {
+                interval = clamp(Duration.ofMillis((long) (interval.toMillis() / backoff)),
+                        min, max);
+            } else {
+                interval = clamp(Duration.ofMillis((long) (interval.toMillis() * backoff)),
+                        min, max);
+            }
+
+            lastFound = found;
+            return interval;
+        }
+
+        private Duration clamp(Duration duration, Duration min, Duration max) {
+            if (duration.compareTo(min) < 0) {
+                return min;
+            } else if (duration.compareTo(max) > 0) {
+                return max;
+            }
+            return duration;
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.chronopolis.intake.duracloud.scheduled;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import okhttp3.HttpUrl;
@@ -8,9 +9,11 @@ import org.chronopolis.intake.duracloud.DataCollector;
 import org.chronopolis.intake.duracloud.PropertiesDataCollector;
 import org.chronopolis.intake.duracloud.batch.SnapshotJobManager;
 import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.BridgeProperties;
 import org.chronopolis.intake.duracloud.model.BagData;
 import org.chronopolis.intake.duracloud.model.BaggingHistory;
 import org.chronopolis.intake.duracloud.model.BaggingHistoryDeserializer;
+import org.chronopolis.intake.duracloud.model.CompletableCallback;
 import org.chronopolis.intake.duracloud.model.HistoryDeserializer;
 import org.chronopolis.intake.duracloud.remote.BridgeAPI;
 import org.chronopolis.intake.duracloud.remote.model.History;
@@ -22,6 +25,7 @@ import org.chronopolis.intake.duracloud.remote.model.SnapshotStaged;
 import org.chronopolis.intake.duracloud.remote.model.SnapshotStagedDeserializer;
 import org.chronopolis.intake.duracloud.remote.model.SnapshotStatus;
 import org.chronopolis.intake.duracloud.remote.model.Snapshots;
+import org.chronopolis.intake.duracloud.scheduled.HistoryWatermarks.Watermark;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,9 +35,29 @@ import org.springframework.stereotype.Component;
 import retrofit2.Call;
 import retrofit2.Response;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * Define a scheduled task which polls the Bridge server for snapshots
@@ -46,28 +70,141 @@ import java.util.List;
 public class Bridge {
 
     private final Logger log = LoggerFactory.getLogger(Bridge.class);
+    private final Logger metrics = LoggerFactory.getLogger("metrics");
 
     private final SnapshotJobManager manager;
+    private final BridgeProperties properties;
     private final List<BridgeContext> contexts;
+    private final Map<String, ThreadPoolExecutor> pollers;
+    private final HistoryWatermarks watermarks = new HistoryWatermarks();
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(History.class, new HistoryDeserializer())
+            .registerTypeAdapter(BaggingHistory.class, new BaggingHistoryDeserializer())
+            .registerTypeAdapter(SnapshotStaged.class, new SnapshotStagedDeserializer())
+            .disableHtmlEscaping()
+            .create();
 
     @Autowired
-    public Bridge(SnapshotJobManager manager, List<BridgeContext> contexts) {
+    public Bridge(SnapshotJobManager manager,
+                  BridgeProperties properties,
+                  List<BridgeContext> contexts) {
         this.manager = manager;
+        this.properties = properties;
         this.contexts = contexts;
+        this.pollers = contexts.stream()
+                .collect(Collectors.toMap(BridgeContext::getName, this::poller));
+    }
+
+    /**
+     * Create the executor used to poll a single bridge. It only runs one poll at a time and does
+     * not queue any others, so a bridge which is still being polled will have any overlapping
+     * polls rejected.
+     *
+     * @param context the {@link BridgeContext} which will be polled
+     * @return the {@link ThreadPoolExecutor}
+     */
+    private ThreadPoolExecutor poller(BridgeContext context) {
+        return new ThreadPoolExecutor(1, 1, 0, MILLISECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("poll-" + context.getName() + "-%d")
+                        .build());
     }
 
+    /**
+     * Shutdown the executors for each bridge
+     */
+    @PreDestroy
+    public void destroy() {
+        log.debug("Shutting down bridge pollers");
+        pollers.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    /**
+     * Poll all bridges on the bridge.poll cron, unless each bridge is being scheduled by the
+     * {@link AdaptivePoller}
+     */
     @Scheduled(cron = "${bridge.poll:0 0 0 * * *}")
+    public void scheduledPoll() {
+        if (properties.getScheduler() == BridgeProperties.Scheduler.CRON) {
+            findSnapshots();
+        }
+    }
+
     public void findSnapshots() {
         log.trace("Polling for snapshots...");
-        contexts.forEach(this::checkBridge);
+
+        // start everything first so that each bridge is only bound by its own deadline
+        long deadline = System.nanoTime() + properties.getTimeout().toNanos();
+        Map<BridgeContext, Future<Integer>> polls = contexts.stream()
+                .collect(Collectors.toMap(Function.identity(), this::poll,
+                        (l, r) -> l, LinkedHashMap::new));
+        polls.forEach((context, poll) -> await(context, poll, deadline));
+    }
+
+    /**
+     * Poll a single bridge on its own executor
+     * <p>
+     * If the bridge is still being polled from a previous run, the returned {@link Future} will
+     * complete exceptionally with a {@link RejectedExecutionException}.
+     *
+     * @param context the {@link BridgeContext} to poll
+     * @return a {@link Future} for the number of snapshots found on the bridge
+     */
+    public Future<Integer> poll(BridgeContext context) {
+        final long start = System.nanoTime();
+        ThreadPoolExecutor poller = pollers.get(context.getName());
+        try {
+            return poller.submit(() -> {
+                int found = checkBridge(context);
+                long elapsed = NANOSECONDS.toMillis(System.nanoTime() - start);
+                metrics.info("{},{},{},{}", context.getName(), "poll", elapsed, found);
+                return found;
+            });
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<Integer> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * Wait for the poll of a bridge to complete, interrupting it if it runs past the deadline. Any
+     * failures are logged so that they do not affect the polling of other bridges.
+     *
+     * @param context  the {@link BridgeContext} which is being polled
+     * @param poll     the {@link Future} for the poll
+     * @param deadline the time, in nanoseconds, by which the poll should be complete
+     */
+    private void await(BridgeContext context, Future<Integer> poll, long deadline) {
+        Logger contextLogger = context.getLogger();
+        try {
+            poll.get(Math.max(0, deadline - System.nanoTime()), NANOSECONDS);
+        } catch (TimeoutException e) {
+            contextLogger.warn("[{}] Poll exceeded timeout of {}, interrupting",
+                    context.getName(), properties.getTimeout());
+            poll.cancel(true);
+        } catch (InterruptedException e) {
+            contextLogger.warn("[{}] Interrupted while waiting for poll", context.getName());
+            poll.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                contextLogger.warn("[{}] Previous poll is still running, skipping",
+                        context.getName());
+            } else {
+                contextLogger.error("[{}] Error polling bridge", context.getName(), e.getCause());
+            }
+        }
     }
 
     /**
      * Query a bridge for ongoing snapshots
      *
      * @param bridgeContext the {@link BridgeContext} to retrieve the {@link BridgeAPI} to query
+     * @return the number of snapshots found
      */
-    private void checkBridge(BridgeContext bridgeContext) {
+    private int checkBridge(BridgeContext bridgeContext) {
         log.info("[{}] Querying for snapshots", bridgeContext.getName());
         Response<Snapshots> response;
 
@@ -81,19 +218,48 @@ public class Bridge {
             response = snapshotCall.execute();
         } catch (IOException e) {
             contextLogger.warn("[{}] Unable to query Bridge API", requestUrl, e);
-            return;
+            return 0;
         }
 
+        int found = 0;
         DataCollector collector = new PropertiesDataCollector(bridgeContext);
         if (response != null && response.isSuccessful()) {
-            response.body()
-                    .getSnapshots()
-                    .forEach(snapshot -> processSnapshot(bridgeContext, collector, snapshot));
+            List<Snapshot> snapshots = response.body().getSnapshots();
+            found = snapshots.size();
+            if (properties.getAsync().getEnabled()) {
+                processSnapshotsAsync(bridgeContext, collector, snapshots);
+            } else {
+                for (Snapshot snapshot : snapshots) {
+                    // stop early if we've hit our deadline
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+
+                    processSnapshot(bridgeContext, collector, snapshot);
+                }
+            }
+
+            watermarks.retain(bridgeContext, snapshots.stream()
+                    .map(Snapshot::getSnapshotId)
+                    .collect(Collectors.toSet()));
         } else {
             String message = response != null ? response.message() : "";
             contextLogger.warn("[{}] Error in query to bridge api: Bridge API {}",
                     requestUrl, message);
         }
+
+        return found;
+    }
+
+    /**
+     * Process a single {@link Snapshot} outside of a poll, e.g. when a Bridge notifies us that
+     * the state of a snapshot has changed
+     *
+     * @param bridgeContext the {@link BridgeContext} which the snapshot belongs to
+     * @param snapshot      the {@link Snapshot} to process
+     */
+    public void processSnapshot(BridgeContext bridgeContext, Snapshot snapshot) {
+        processSnapshot(bridgeContext, new PropertiesDataCollector(bridgeContext), snapshot);
     }
 
     /**
@@ -117,56 +283,244 @@ public class Bridge {
         BagData data;
         SnapshotDetails details;
         List<HistoryItem> history;
+        Optional<Watermark> unchanged;
         Response<SnapshotDetails> detailsResponse;
         Response<SnapshotHistory> historyResponse;
-        Call<SnapshotDetails> detailsCall = bridge.getSnapshotDetails(snapshotId);
-        Call<SnapshotHistory> historyCall = bridge.getSnapshotHistory(snapshotId, new HashMap<>());
+        Call<SnapshotHistory> historyCall = bridge.getSnapshotHistory(snapshotId, historyParams());
 
         try {
-            detailsResponse = detailsCall.execute();
             historyResponse = historyCall.execute();
-            data = collector.collectBagData(snapshotId);
+            history = historyResponse != null && historyResponse.body() != null
+                    ? historyResponse.body().getHistoryItems()
+                    : ImmutableList.of();
+
+            unchanged = unchanged(bridgeContext, snapshotId, history);
+            if (unchanged.isPresent()) {
+                detailsResponse = null;
+                data = null;
+            } else {
+                detailsResponse = bridge.getSnapshotDetails(snapshotId).execute();
+                data = collector.collectBagData(snapshotId);
+            }
         } catch (IOException e) {
             contextLogger.error("Error getting information for snapshot {}", snapshotId, e);
             return;
         }
 
-        details = detailsResponse != null && detailsResponse.body() != null
-                ? detailsResponse.body()
-                : null;
-        history = historyResponse != null && historyResponse.body() != null
-                ? historyResponse.body().getHistoryItems()
-                : ImmutableList.of();
-
-        if (details != null && !history.isEmpty() && data != null) {
-            // todo: create this from the initial query... no need to make a new one for each bridge
-            // try to deserialize the history
-            Gson gson = new GsonBuilder()
-                    .registerTypeAdapter(History.class, new HistoryDeserializer())
-                    .registerTypeAdapter(BaggingHistory.class, new BaggingHistoryDeserializer())
-                    .registerTypeAdapter(SnapshotStaged.class, new SnapshotStagedDeserializer())
-                    .disableHtmlEscaping()
-                    .create();
+        if (unchanged.isPresent()) {
+            dispatch(bridgeContext, unchanged.get());
+        } else {
+            details = detailsResponse != null && detailsResponse.body() != null
+                    ? detailsResponse.body()
+                    : null;
+            handleSnapshot(bridgeContext, snapshotId, details, history, data);
+        }
+    }
+
+    /**
+     * Process snapshots by issuing the lookups for up to {@link BridgeProperties.Async#concurrency}
+     * snapshots at once. For each snapshot, the requests for the {@link SnapshotDetails} and
+     * {@link SnapshotHistory} are enqueued and the {@link BagData} is read while they are in
+     * flight. As each snapshot resolves it is handed off on the polling thread so that the
+     * {@link SnapshotJobManager} sees the same calling pattern as when processing synchronously.
+     *
+     * @param bridgeContext the {@link BridgeContext} telling us which {@link BridgeAPI} we are
+     *                      operating on
+     * @param collector     the {@link DataCollector} to collect additional information
+     * @param snapshots     the {@link Snapshot}s being processed
+     */
+    private void processSnapshotsAsync(BridgeContext bridgeContext,
+                                       DataCollector collector,
+                                       List<Snapshot> snapshots) {
+        int inFlight = 0;
+        int concurrency = properties.getAsync().getConcurrency();
+        Iterator<Snapshot> iterator = snapshots.iterator();
+        BlockingQueue<Runnable> resolved = new LinkedBlockingQueue<>();
+
+        try {
+            while (iterator.hasNext() || inFlight > 0) {
+                while (iterator.hasNext() && inFlight < concurrency) {
+                    lookupSnapshot(bridgeContext, collector, iterator.next())
+                            .thenAccept(resolved::add);
+                    ++inFlight;
+                }
+
+                Runnable next = resolved.take();
+                --inFlight;
+                next.run();
+            }
+        } catch (InterruptedException e) {
+            bridgeContext.getLogger().warn("[{}] Interrupted while processing snapshots, {} "
+                    + "lookups still in flight", bridgeContext.getName(), inFlight);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start the lookups for a {@link Snapshot} without blocking on the http calls
+     * <p>
+     * When only retrieving the latest history, the details are not requested until we know the
+     * snapshot has changed since the last poll.
+     *
+     * @param bridgeContext the {@link BridgeContext} telling us which {@link BridgeAPI} we are
+     *                      operating on
+     * @param collector     the {@link DataCollector} to collect additional information
+     * @param snapshot      the {@link Snapshot} being processed
+     * @return a future which completes with the action to run for the snapshot
+     */
+    private CompletableFuture<Runnable> lookupSnapshot(BridgeContext bridgeContext,
+                                                       DataCollector collector,
+                                                       Snapshot snapshot) {
+        Logger contextLogger = bridgeContext.getLogger();
+        BridgeAPI bridge = bridgeContext.getApi();
+        String snapshotId = snapshot.getSnapshotId();
 
+        Supplier<CompletableFuture<Optional<SnapshotDetails>>> detailsLookup =
+                () -> CompletableCallback.enqueue(bridge.getSnapshotDetails(snapshotId));
+        CompletableFuture<Optional<SnapshotHistory>> history =
+                CompletableCallback.enqueue(bridge.getSnapshotHistory(snapshotId, historyParams()));
+        CompletableFuture<Optional<SnapshotDetails>> eagerDetails = incrementalHistory()
+                ? null
+                : detailsLookup.get();
+
+        BagData data;
+        try {
+            data = collector.collectBagData(snapshotId);
+        } catch (IOException e) {
+            contextLogger.error("Error getting information for snapshot {}", snapshotId, e);
+            data = null;
+        }
+
+        final BagData bagData = data;
+        return history.thenCompose(historyBody -> {
+            List<HistoryItem> items = historyBody.map(SnapshotHistory::getHistoryItems)
+                    .orElse(ImmutableList.of());
+            Optional<Watermark> unchanged = unchanged(bridgeContext, snapshotId, items);
+            if (unchanged.isPresent()) {
+                return CompletableFuture.completedFuture(
+                        (Runnable) () -> dispatch(bridgeContext, unchanged.get()));
+            }
+
+            CompletableFuture<Optional<SnapshotDetails>> details = eagerDetails != null
+                    ? eagerDetails
+                    : detailsLookup.get();
+            return details.thenApply(detailsBody -> (Runnable) () ->
+                    handleSnapshot(bridgeContext,
+                            snapshotId,
+                            detailsBody.orElse(null),
+                            items,
+                            bagData));
+        }).exceptionally(throwable -> () -> contextLogger.error(
+                "Error getting information for snapshot {}", snapshotId, throwable));
+    }
+
+    /**
+     * Parse the latest {@link History} of a snapshot and forward it to the
+     * {@link SnapshotJobManager}
+     *
+     * @param bridgeContext the {@link BridgeContext} for the snapshot
+     * @param snapshotId    the id of the snapshot
+     * @param details       the {@link SnapshotDetails} of the snapshot, if found
+     * @param history       the {@link HistoryItem}s of the snapshot, newest first
+     * @param data          the {@link BagData} of the snapshot, if found
+     */
+    private void handleSnapshot(BridgeContext bridgeContext,
+                                String snapshotId,
+                                SnapshotDetails details,
+                                List<HistoryItem> history,
+                                BagData data) {
+        Logger contextLogger = bridgeContext.getLogger();
+        if (details != null && history != null && !history.isEmpty() && data != null) {
             // The latest history item should tell us what step we're on, and of those we
             // only really care about SNAPSHOT_STAGED and SNAPSHOT_BAGGED
             // If we're at STAGED, then the snapshot is ready to be bagged
             // If we're at BAGGED, then the snapshot needs to be replicated/closed
             HistoryItem item = history.get(0);
             History fromJson = gson.fromJson(item.getHistory(), History.class);
-            if (fromJson instanceof SnapshotStaged) {
-                manager.bagSnapshot(data, bridgeContext);
-            } else if (fromJson instanceof BaggingHistory) {
-                BaggingHistory baggingHistory = (BaggingHistory) fromJson;
-                manager.startReplicationTasklet(
-                        data,
-                        details,
-                        baggingHistory.getHistory(),
-                        bridgeContext);
+            if (incrementalHistory()) {
+                watermarks.update(bridgeContext, snapshotId,
+                        new Watermark(item.getHistoryDate(), fromJson, details, data));
             }
+
+            dispatch(bridgeContext, data, details, fromJson);
         } else {
             contextLogger.info("Snapshot {} has no history, ignoring", snapshotId);
         }
     }
 
+    private void dispatch(BridgeContext bridgeContext, Watermark watermark) {
+        bridgeContext.getLogger().debug("Snapshot {} has not changed since {}",
+                watermark.getData().snapshotId(), watermark.getHistoryDate());
+        dispatch(bridgeContext, watermark.getData(), watermark.getDetails(),
+                watermark.getHistory());
+    }
+
+    /**
+     * Forward a snapshot to the {@link SnapshotJobManager} based on its latest {@link History}
+     *
+     * @param bridgeContext the {@link BridgeContext} for the snapshot
+     * @param data          the {@link BagData} of the snapshot
+     * @param details       the {@link SnapshotDetails} of the snapshot
+     * @param history       the latest {@link History} of the snapshot
+     */
+    private void dispatch(BridgeContext bridgeContext,
+                          BagData data,
+                          SnapshotDetails details,
+                          History history) {
+        boolean accepted = true;
+        if (history instanceof SnapshotStaged) {
+            accepted = manager.bagSnapshot(data, details, bridgeContext);
+        } else if (history instanceof BaggingHistory) {
+            BaggingHistory baggingHistory = (BaggingHistory) history;
+            accepted = manager.startReplicationTasklet(
+                    data,
+                    details,
+                    baggingHistory.getHistory(),
+                    bridgeContext);
+        }
+
+        if (!accepted) {
+            bridgeContext.getLogger().info("Snapshot {} deferred until the next poll, job queue "
+                    + "is full", data.snapshotId());
+        }
+    }
+
+    private boolean incrementalHistory() {
+        return properties.getHistory() == BridgeProperties.HistoryMode.LATEST;
+    }
+
+    /**
+     * Build the query parameters for retrieving the history of a snapshot. The Bridge returns
+     * history newest first, so when running incrementally we only need the first item of the
+     * first page.
+     *
+     * @return the query parameters
+     */
+    private Map<String, String> historyParams() {
+        Map<String, String> params = new HashMap<>();
+        if (incrementalHistory()) {
+            params.put("page", "0");
+            params.put("pageSize", "1");
+        }
+        return params;
+    }
+
+    /**
+     * Check if the newest {@link HistoryItem} for a snapshot matches what we saw last time
+     *
+     * @param bridgeContext the {@link BridgeContext} for the snapshot
+     * @param snapshotId    the id of the snapshot
+     * @param history       the {@link HistoryItem}s of the snapshot, newest first
+     * @return the {@link Watermark} for the snapshot, if it is unchanged
+     */
+    private Optional<Watermark> unchanged(BridgeContext bridgeContext,
+                                          String snapshotId,
+                                          List<HistoryItem> history) {
+        if (!incrementalHistory() || history == null || history.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return watermarks.unchanged(bridgeContext, snapshotId, history.get(0).getHistoryDate());
+    }
+
 }
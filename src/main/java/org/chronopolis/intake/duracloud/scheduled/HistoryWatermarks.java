@@ -0,0 +1,91 @@
+package org.chronopolis.intake.duracloud.scheduled;
+
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.model.BagData;
+import org.chronopolis.intake.duracloud.remote.model.History;
+import org.chronopolis.intake.duracloud.remote.model.HistoryItem;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Track the date of the newest {@link HistoryItem} seen for each snapshot on a Bridge, along with
+ * what we looked up for it. If the newest history of a snapshot has not changed since the last
+ * poll, it can be processed again without retrieving its details or parsing its history.
+ *
+ * @author shake
+ */
+class HistoryWatermarks {
+
+    private final Map<String, Watermark> watermarks = new ConcurrentHashMap<>();
+
+    /**
+     * Get the {@link Watermark} for a snapshot if its newest history is still from historyDate
+     *
+     * @param context     the {@link BridgeContext} of the snapshot
+     * @param snapshotId  the id of the snapshot
+     * @param historyDate the date of the newest {@link HistoryItem} for the snapshot
+     * @return the {@link Watermark}, if the snapshot has not changed
+     */
+    Optional<Watermark> unchanged(BridgeContext context, String snapshotId, Long historyDate) {
+        return Optional.ofNullable(watermarks.get(key(context, snapshotId)))
+                .filter(watermark -> Objects.equals(watermark.getHistoryDate(), historyDate));
+    }
+
+    void update(BridgeContext context, String snapshotId, Watermark watermark) {
+        watermarks.put(key(context, snapshotId), watermark);
+    }
+
+    /**
+     * Drop the watermarks for any snapshots which are no longer returned by a Bridge
+     *
+     * @param context     the {@link BridgeContext} which was polled
+     * @param snapshotIds the ids of the snapshots which are still being processed
+     */
+    void retain(BridgeContext context, Collection<String> snapshotIds) {
+        String prefix = key(context, "");
+        watermarks.keySet().removeIf(key -> key.startsWith(prefix)
+                && !snapshotIds.contains(key.substring(prefix.length())));
+    }
+
+    private String key(BridgeContext context, String snapshotId) {
+        return context.getName() + "/" + snapshotId;
+    }
+
+    /**
+     * Everything needed to forward a snapshot on without looking it up again
+     */
+    static class Watermark {
+        private final Long historyDate;
+        private final History history;
+        private final SnapshotDetails details;
+        private final BagData data;
+
+        Watermark(Long historyDate, History history, SnapshotDetails details, BagData data) {
+            this.historyDate = historyDate;
+            this.history = history;
+            this.details = details;
+            this.data = data;
+        }
+
+        Long getHistoryDate() {
+            return historyDate;
+        }
+
+        History getHistory() {
+            return history;
+        }
+
+        SnapshotDetails getDetails() {
+            return details;
+        }
+
+        BagData getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.chronopolis.intake.duracloud.webhook;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.BridgeProperties;
+import org.chronopolis.intake.duracloud.remote.model.Snapshot;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotEvent;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotStatus;
+import org.chronopolis.intake.duracloud.scheduled.Bridge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Embedded http endpoint which allows a Bridge to push changes in the state of a snapshot to us
+ * rather than waiting on the next poll. Events are handed to {@link Bridge} in order to go
+ * through the same processing as a polled snapshot, so polling still acts as a fallback for any
+ * events which are missed.
+ * <p>
+ * Events are POSTed to /bridge/{bridge-name}/snapshot with the shared secret for the Bridge in
+ * the X-Bridge-Secret header, e.g.
+ * <pre>
+ * curl -X POST -H 'Content-Type: application/json' -H 'X-Bridge-Secret: replace-me' \
+ *      -d '{"snapshotId": "test-snapshot", "snapshotAction": "SNAPSHOT_STAGED"}' \
+ *      http://localhost:8180/bridge/bridge-0/snapshot
+ * </pre>
+ *
+ * @author shake
+ */
+@Component
+@ConditionalOnProperty(prefix = "bridge.webhook", name = "enabled", havingValue = "true")
+public class SnapshotWebhook implements HttpHandler {
+
+    private final Logger log = LoggerFactory.getLogger(SnapshotWebhook.class);
+
+    private static final String PREFIX = "/bridge/";
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SECRET_HEADER = "X-Bridge-Secret";
+
+    private final Gson gson = new Gson();
+    private final Bridge bridge;
+    private final BridgeProperties properties;
+    private final Map<String, BridgeContext> contexts;
+    private final ThreadPoolExecutor events;
+
+    private HttpServer server;
+
+    public SnapshotWebhook(Bridge bridge,
+                           BridgeProperties properties,
+                           List<BridgeContext> contexts) {
+        this.bridge = bridge;
+        this.properties = properties;
+        this.contexts = contexts.stream()
+                .collect(Collectors.toMap(BridgeContext::getName, Function.identity()));
+        this.events = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getWebhook().getQueue()),
+                new ThreadFactoryBuilder().setNameFormat("webhook-%d").build());
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        BridgeProperties.Webhook webhook = properties.getWebhook();
+        InetSocketAddress address =
+                new InetSocketAddress(webhook.getAddress(), webhook.getPort());
+
+        server = HttpServer.create(address, 0);
+        server.createContext(PREFIX, this);
+        server.start();
+        log.info("Listening for snapshot events on {}", server.getAddress());
+        contexts.keySet().stream()
+                .filter(name -> !webhook.getSecrets().containsKey(name))
+                .forEach(name -> log.warn("[{}] No webhook secret configured, all events for "
+                        + "this bridge will be refused", name));
+    }
+
+    @PreDestroy
+    public void stop() {
+        log.debug("Shutting down snapshot webhook");
+        if (server != null) {
+            server.stop(0);
+        }
+        events.shutdownNow();
+    }
+
+    /**
+     * @return the port the http endpoint is bound to
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.sendResponseHeaders(accept(exchange), -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Validate an incoming request and queue the event for processing
+     *
+     * @param exchange the {@link HttpExchange} for the request
+     * @return the http status code to respond with
+     */
+    private int accept(HttpExchange exchange) {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            return 405;
+        }
+
+        // /bridge/{bridge-name}/snapshot
+        String[] path = exchange.getRequestURI().getPath()
+                .substring(PREFIX.length())
+                .split("/");
+        BridgeContext context = path.length == 2 && SNAPSHOT.equals(path[1])
+                ? contexts.get(path[0])
+                : null;
+        if (context == null) {
+            return 404;
+        }
+
+        // check before reading anything so that unauthenticated requests can't fill the queue
+        if (!authenticated(context, exchange)) {
+            log.warn("[{}] Refusing unauthenticated snapshot event from {}",
+                    context.getName(), exchange.getRemoteAddress());
+            return 401;
+        }
+
+        SnapshotEvent event;
+        try (Reader body = new InputStreamReader(exchange.getRequestBody(),
+                StandardCharsets.UTF_8)) {
+            event = gson.fromJson(body, SnapshotEvent.class);
+        } catch (IOException | JsonParseException e) {
+            log.warn("[{}] Unable to read snapshot event", context.getName(), e);
+            return 400;
+        }
+
+        if (event == null || event.getSnapshotId() == null) {
+            return 400;
+        }
+
+        // Only snapshots which are replicating are being worked on by us
+        Logger contextLogger = context.getLogger();
+        if (event.getStatus() != null
+                && event.getStatus() != SnapshotStatus.REPLICATING_TO_STORAGE) {
+            contextLogger.debug("[{}] Ignoring event for snapshot {} with status {}",
+                    context.getName(), event.getSnapshotId(), event.getStatus());
+            return 204;
+        }
+
+        Snapshot snapshot = new Snapshot()
+                .setSnapshotId(event.getSnapshotId())
+                .setStatus(event.getStatus());
+        try {
+            events.execute(() -> process(context, snapshot));
+        } catch (RejectedExecutionException e) {
+            contextLogger.warn("[{}] Too many pending events, refusing event for snapshot {}",
+                    context.getName(), event.getSnapshotId());
+            return 503;
+        }
+
+        contextLogger.info("[{}] Received {} event for snapshot {}", context.getName(),
+                event.getSnapshotAction(), event.getSnapshotId());
+        return 202;
+    }
+
+    /**
+     * Check the secret sent with a request against the one configured for its Bridge
+     *
+     * @param context  the {@link BridgeContext} the request is for
+     * @param exchange the {@link HttpExchange} for the request
+     * @return true if the Bridge has a secret and the request sent it
+     */
+    private boolean authenticated(BridgeContext context, HttpExchange exchange) {
+        String secret = properties.getWebhook().getSecrets().get(context.getName());
+        String sent = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+        if (secret == null || secret.isEmpty() || sent == null) {
+            return false;
+        }
+
+        // constant time so the secret can't be guessed from how long a request takes
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void process(BridgeContext context, Snapshot snapshot) {
+        try {
+            bridge.processSnapshot(context, snapshot);
+        } catch (Exception e) {
+            context.getLogger().error("[{}] Error processing event for snapshot {}",
+                    context.getName(), snapshot.getSnapshotId(), e);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.chronopolis.intake.duracloud.batch;
+
+import org.chronopolis.intake.duracloud.config.props.JobProperties;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the ordering of jobs in the {@link JobScheduler}
+ *
+ * @author shake
+ */
+public class JobSchedulerTest {
+
+    private final JobProperties.Pool single = new JobProperties.Pool().setThreads(1);
+    private final JobProperties.Scheduling sjf = new JobProperties.Scheduling()
+            .setMode(JobProperties.Mode.SJF)
+            .setAgingBytes(1024L)
+            .setAgingFiles(10L)
+            .setMaxDelay(Duration.ofHours(1));
+
+    @Test
+    public void testSmallJobsRunFirst() throws InterruptedException {
+        ThreadPoolExecutor pool = JobScheduler.pool(single, sjf);
+        JobScheduler scheduler = new JobScheduler(pool, sjf);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(3);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        // occupy the only thread so that the rest of the jobs are queued
+        scheduler.executor(details(0, 0)).execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        scheduler.executor(details(1024L * 1024, 100)).execute(record("large", order, finished));
+        scheduler.executor(details(2048L, 1)).execute(record("medium", order, finished));
+        scheduler.executor(details(1L, 1)).execute(record("small", order, finished));
+        blocked.countDown();
+
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("small", order.get(0));
+        Assert.assertEquals("medium", order.get(1));
+        Assert.assertEquals("large", order.get(2));
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testDelayIsCapped() {
+        JobScheduler scheduler = new JobScheduler(JobScheduler.pool(single, sjf), sjf);
+        long now = System.currentTimeMillis();
+
+        long deadline = scheduler.deadline(Long.MAX_VALUE / 2, 0);
+        Assert.assertTrue(deadline <= System.currentTimeMillis() + Duration.ofHours(1).toMillis());
+        Assert.assertTrue(deadline >= now + Duration.ofHours(1).toMillis());
+    }
+
+    @Test
+    public void testFifoIgnoresSize() {
+        JobProperties.Scheduling fifo = new JobProperties.Scheduling();
+        JobScheduler scheduler = new JobScheduler(JobScheduler.pool(single, fifo), fifo);
+        long now = System.currentTimeMillis();
+
+        Assert.assertTrue(scheduler.deadline(Long.MAX_VALUE / 2, 100) - now < 1000);
+    }
+
+    @Test
+    public void testSizeClass() {
+        Assert.assertEquals("small", JobScheduler.sizeClass(1024L));
+        Assert.assertEquals("huge", JobScheduler.sizeClass(50L * 1024 * 1024 * 1024 * 1024));
+    }
+
+    private SnapshotDetails details(long size, long count) {
+        return new SnapshotDetails()
+                .setTotalSizeInBytes(String.valueOf(size))
+                .setContentItemCount(String.valueOf(count));
+    }
+
+    private Runnable record(String name, List<String> order, CountDownLatch finished) {
+        return () -> {
+            order.add(name);
+            finished.countDown();
+        };
+    }
+
+}
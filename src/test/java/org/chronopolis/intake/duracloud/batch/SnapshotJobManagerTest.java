@@ -1,16 +1,23 @@
 package org.chronopolis.intake.duracloud.batch;
 
 import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.batch.bagging.BaggingTasklet;
+import org.chronopolis.intake.duracloud.batch.check.ChronopolisCheck;
 import org.chronopolis.intake.duracloud.batch.check.DepositorCheck;
+import org.chronopolis.intake.duracloud.batch.ingest.ChronopolisIngest;
 import org.chronopolis.intake.duracloud.config.BridgeContext;
 import org.chronopolis.intake.duracloud.config.props.Push;
 import org.chronopolis.intake.duracloud.model.BagData;
+import org.chronopolis.intake.duracloud.model.BagReceipt;
 import org.chronopolis.intake.duracloud.remote.BridgeAPI;
 import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -19,6 +26,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -59,10 +67,114 @@ public class SnapshotJobManagerTest {
 
         manager.startReplicationTasklet(bagData, details, ImmutableList.of(), context);
 
+        // the depositor check runs on the shortIo pool
+        verify(depositorCheck, timeout(5000).times(1)).test(eq(bagData), eq(context));
         Assert.assertTrue(processing.isEmpty());
-        verify(depositorCheck, times(1)).test(eq(bagData), eq(context));
-        verify(chronFactory, never()).ingest(any(), any(), any());
+        verify(chronFactory, never()).ingest(any(), any(), any(), any());
         verify(chronFactory, never()).check(any(), any(), any());
     }
 
-}
\ No newline at end of file
+    /**
+     * Test that a successfully bagged snapshot continues on to ingestion
+     */
+    @Test
+    public void testBaggingChainsIngest() {
+        String empty = "";
+
+        BridgeAPI bridge = mock(BridgeAPI.class);
+        ChronFactory chronFactory = mock(ChronFactory.class);
+        BaggingFactory bagFactory = mock(BaggingFactory.class);
+        DepositorCheck depositorCheck = mock(DepositorCheck.class);
+        BaggingTasklet bagger = mock(BaggingTasklet.class);
+        ChronopolisIngest ingest = mock(ChronopolisIngest.class);
+        ChronopolisCheck check = mock(ChronopolisCheck.class);
+
+        ThreadPoolExecutor executor
+                = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS, new LinkedBlockingQueue<>());
+        ConcurrentSkipListSet<String> processing = new ConcurrentSkipListSet<>();
+
+        SnapshotJobManager manager = new SnapshotJobManager(
+                chronFactory, bagFactory, depositorCheck, processing, executor, executor
+        );
+
+        BagData bagData = new BagData(empty);
+        bagData.setSnapshotId("snapshot");
+        bagData.setMember("member");
+        bagData.setDepositor("depositor");
+        bagData.setName("test-bagging-chains-ingest");
+
+        BridgeContext context =
+                new BridgeContext(bridge, empty, empty, empty, empty, Push.NONE, empty);
+        SnapshotDetails details = new SnapshotDetails();
+        List<BagReceipt> receipts = ImmutableList.of(
+                new BagReceipt().setName("bag").setReceipt("receipt"));
+
+        when(bagFactory.baggingTasklet(eq(bagData), eq(context))).thenReturn(bagger);
+        when(bagger.get()).thenReturn(receipts);
+        when(depositorCheck.test(eq(bagData), eq(context))).thenReturn(true);
+        when(chronFactory.ingest(eq(bagData), eq(receipts), eq(context), any()))
+                .thenReturn(ingest);
+        when(ingest.ingest()).thenReturn(CompletableFuture.completedFuture(null));
+        when(chronFactory.check(eq(bagData), eq(receipts), eq(context))).thenReturn(check);
+
+        manager.bagSnapshot(bagData, details, context);
+
+        verify(bagger, timeout(5000)).get();
+        verify(ingest, timeout(5000)).ingest();
+        verify(check, timeout(5000)).run();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test that a snapshot is refused when the longIo queue is full
+     */
+    @Test
+    public void testFullQueueRefusesSnapshot() {
+        String empty = "";
+
+        BridgeAPI bridge = mock(BridgeAPI.class);
+        ChronFactory chronFactory = mock(ChronFactory.class);
+        BaggingFactory bagFactory = mock(BaggingFactory.class);
+        DepositorCheck depositorCheck = mock(DepositorCheck.class);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        ThreadPoolExecutor executor
+                = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS, new LinkedBlockingQueue<>(1));
+        ConcurrentSkipListSet<String> processing = new ConcurrentSkipListSet<>();
+
+        SnapshotJobManager manager = new SnapshotJobManager(
+                chronFactory, bagFactory, depositorCheck, processing, executor, executor
+        );
+
+        // one job running and one waiting fills the pool
+        Runnable blocked = () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute(blocked);
+        executor.execute(blocked);
+
+        BagData bagData = new BagData(empty);
+        bagData.setSnapshotId("snapshot");
+        bagData.setMember("member");
+        bagData.setDepositor("depositor");
+        bagData.setName("test-full-queue-refuses-snapshot");
+
+        BridgeContext context =
+                new BridgeContext(bridge, empty, empty, empty, empty, Push.NONE, empty);
+        when(bagFactory.baggingTasklet(eq(bagData), eq(context)))
+                .thenReturn(mock(BaggingTasklet.class));
+
+        Assert.assertFalse(manager.bagSnapshot(bagData, new SnapshotDetails(), context));
+        Assert.assertTrue(processing.isEmpty());
+        Assert.assertEquals(1, manager.getLongIoRejected());
+        Assert.assertEquals(1, manager.getLongIoQueueDepth());
+
+        latch.countDown();
+        executor.shutdownNow();
+    }
+
+}
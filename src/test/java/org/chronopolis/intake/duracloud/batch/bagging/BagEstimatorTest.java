@@ -0,0 +1,138 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import org.chronopolis.bag.SimpleNamingSchema;
+import org.chronopolis.bag.core.BagInfo;
+import org.chronopolis.bag.core.BagIt;
+import org.chronopolis.bag.core.Unit;
+import org.chronopolis.bag.partitioner.Bagger;
+import org.chronopolis.intake.duracloud.config.props.BagProperties;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Tests for {@link BagEstimator}
+ *
+ * @author shake
+ */
+public class BagEstimatorTest {
+
+    private Path tmp;
+    private Path snapshot;
+    private Path manifest;
+    private BagProperties bagProperties;
+
+    @Before
+    public void setup() throws IOException {
+        tmp = Files.createTempDirectory("bagestimatortest");
+        tmp.toFile().deleteOnExit();
+        snapshot = Files.createDirectories(tmp.resolve("snapshot"));
+        manifest = snapshot.resolve("manifest-sha256.txt");
+        Files.createDirectories(snapshot.resolve("data/a"));
+        Files.createDirectories(snapshot.resolve("data/b"));
+
+        Files.write(snapshot.resolve("data/a/1"), new byte[40]);
+        Files.write(snapshot.resolve("data/a/2"), new byte[40]);
+        Files.write(snapshot.resolve("data/a/3"), new byte[40]);
+        Files.write(snapshot.resolve("data/b/1"), new byte[90]);
+        Files.write(manifest, ImmutableList.of(
+                Hashing.sha256().hashInt(1) + "  data/a/1",
+                Hashing.sha256().hashInt(2) + "  data/a/2",
+                Hashing.sha256().hashInt(3) + "  data/a/3",
+                Hashing.sha256().hashInt(4) + "  data/b/1"), StandardCharsets.UTF_8);
+
+        bagProperties = new BagProperties()
+                .setMaxSize(100)
+                .setUnit(Unit.BYTE)
+                .setStreaming(new BagProperties.Streaming()
+                        .setWorkDirectory(tmp.resolve("work").toString()));
+    }
+
+    @Test
+    public void testGreedyEstimate() throws IOException {
+        bagProperties.getStreaming().setEnabled(true);
+        BagEstimator estimator =
+                new BagEstimator(bagProperties, new ThroughputHistory(10), LinkMode.COPY);
+        BagEstimate estimate = estimator.estimate("snapshot", snapshot, manifest);
+
+        Assert.assertEquals(3, estimate.getBags().size());
+        Assert.assertEquals(80, estimate.getBags().get(0).getSize());
+        Assert.assertEquals(40, estimate.getBags().get(1).getSize());
+        Assert.assertEquals(90, estimate.getBags().get(2).getSize());
+        Assert.assertEquals(4, estimate.getFiles());
+        Assert.assertEquals(210, estimate.getPayloadBytes());
+        Assert.assertEquals(0, estimate.getRejected());
+        Assert.assertTrue(estimate.getStagingBytes() > estimate.getPayloadBytes());
+
+        // one bag at a time at 10 B/s: 8s + 4s + 9s
+        Assert.assertEquals(Duration.ofSeconds(21), estimate.getDuration());
+
+        // nothing should be left behind from the dry run
+        Assert.assertFalse(Files.exists(tmp.resolve("work").resolve("snapshot-estimate")));
+    }
+
+    @Test
+    public void testParallelLinkedEstimate() throws IOException {
+        bagProperties.getWrite().setParallel(3);
+        BagEstimator estimator =
+                new BagEstimator(bagProperties, new ThroughputHistory(10), LinkMode.HARDLINK);
+        BagEstimate estimate = estimator.estimate("snapshot", snapshot, manifest);
+
+        // all three bags are written at once, so only the largest matters
+        Assert.assertEquals(Duration.ofSeconds(9), estimate.getDuration());
+        // linked payload files take no space in staging, only the tag files do
+        Assert.assertEquals(Files.size(manifest) + 3 * 4096, estimate.getStagingBytes());
+    }
+
+    @Test
+    public void testSplitTagFiles() throws IOException {
+        Path md5 = snapshot.resolve(BaggingTasklet.SNAPSHOT_MD5);
+        Path properties = snapshot.resolve(BaggingTasklet.SNAPSHOT_CONTENT_PROPERTIES);
+        Path collection = snapshot.resolve(BaggingTasklet.SNAPSHOT_COLLECTION_PROPERTIES);
+        Files.write(md5, new byte[1000]);
+        Files.write(properties, new byte[2000]);
+        Files.write(collection, new byte[10]);
+        BagEstimator estimator =
+                new BagEstimator(bagProperties, new ThroughputHistory(10), LinkMode.HARDLINK);
+        BagEstimate estimate = estimator.estimate("snapshot", snapshot, manifest);
+
+        // the md5 and content properties are split across the bags, the rest are in each bag
+        Assert.assertEquals(3, estimate.getBags().size());
+        Assert.assertEquals(Files.size(manifest) + 1000 + 2000 + 3 * (4096 + 10),
+                estimate.getStagingBytes());
+    }
+
+    @Test
+    public void testBaggerEstimate() throws IOException {
+        Bagger bagger = new Bagger()
+                .withBagInfo(new BagInfo())
+                .withBagit(new BagIt())
+                .withNamingSchema(new SimpleNamingSchema("snapshot"))
+                .withMaxSize(100, Unit.BYTE);
+        BagEstimator estimator =
+                new BagEstimator(bagProperties, new ThroughputHistory(10), LinkMode.COPY)
+                        .withBagger(bagger);
+        BagEstimate estimate = estimator.estimate("snapshot", snapshot, manifest);
+
+        // the Bagger does not cut in path order, so only check what holds for any order
+        long size = 0;
+        long files = 0;
+        for (BagEstimate.PlannedBag bag : estimate.getBags()) {
+            Assert.assertTrue(bag.getSize() <= 100);
+            size += bag.getSize();
+            files += bag.getFiles();
+        }
+        Assert.assertTrue(estimate.getBags().size() >= 3);
+        Assert.assertEquals(210, size);
+        Assert.assertEquals(4, files);
+    }
+
+}
@@ -1,5 +1,8 @@
 package org.chronopolis.intake.duracloud.batch.bagging;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import org.chronopolis.bag.core.Unit;
 import org.chronopolis.common.storage.BagStagingProperties;
 import org.chronopolis.common.storage.Posix;
 import org.chronopolis.intake.duracloud.config.BridgeContext;
@@ -12,17 +15,33 @@ import org.chronopolis.intake.duracloud.remote.model.HistorySummary;
 import org.chronopolis.test.support.CallWrapper;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -35,6 +54,9 @@ import static org.mockito.Mockito.when;
 public class BaggingTaskletTest {
     private final Logger log = LoggerFactory.getLogger(BaggingTaskletTest.class);
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private BridgeAPI bridge;
     private Notifier notifier;
     private BridgeContext context;
@@ -84,6 +106,40 @@ public class BaggingTaskletTest {
         verify(bridge, times(1)).postHistory(eq("test-snapshot"), any(History.class));
     }
 
+    @Test
+    public void testTrustedBagger() {
+        String id = "test-snapshot";
+        String depositor = "test-depositor";
+        bagProperties.setTrusted(new BagProperties.Trusted().setEnabled(true).setSample(0.0));
+
+        tasklet = new BaggingTasklet(id,
+                depositor, context, bagProperties, stagingProperties, notifier);
+        when(bridge.postHistory(eq("test-snapshot"), any(History.class)))
+                .thenReturn(new CallWrapper<>(new HistorySummary()));
+
+        Assert.assertFalse(tasklet.get().isEmpty());
+        verify(bridge, times(1)).postHistory(eq("test-snapshot"), any(History.class));
+    }
+
+    @Test
+    public void testBalancedBagger() throws IOException {
+        String id = "test-snapshot";
+        String depositor = "test-depositor";
+        Path work = Files.createTempDirectory("balancedbagger");
+        work.toFile().deleteOnExit();
+        bagProperties.setPartition(BagProperties.Partition.BALANCED)
+                .setStreaming(new BagProperties.Streaming().setWorkDirectory(work.toString()));
+
+        tasklet = new BaggingTasklet(id,
+                depositor, context, bagProperties, stagingProperties, notifier);
+        when(bridge.postHistory(eq("test-snapshot"), any(History.class)))
+                .thenReturn(new CallWrapper<>(new HistorySummary()));
+
+        Assert.assertEquals(1, tasklet.get().size());
+        verify(bridge, times(1)).postHistory(eq("test-snapshot"), any(History.class));
+        Assert.assertFalse(Files.exists(work.resolve(id)));
+    }
+
     @Test
     public void testEmptyBagger() {
         String id = "empty-snapshot";
@@ -100,4 +156,141 @@ public class BaggingTaskletTest {
 
         verify(bridge, times(0)).postHistory(eq("test-snapshot"), any(History.class));
     }
+
+    @Test
+    public void testSidecarRemovedWithoutIngest() throws IOException {
+        String id = "test-snapshot";
+        String depositor = "test-depositor";
+        Path staging = folder.newFolder("staging").toPath();
+        stagingProperties.setPosix(new Posix().setPath(staging.toString()));
+        bagProperties.setSidecar(true);
+        BridgeContext noPush = new BridgeContext(bridge, "", "manifest-sha256.txt",
+                context.getSnapshots(), context.getSnapshots(), Push.NONE, "bridge");
+
+        tasklet = new BaggingTasklet(id,
+                depositor, noPush, bagProperties, stagingProperties, notifier);
+        when(bridge.postHistory(eq("test-snapshot"), any(History.class)))
+                .thenReturn(new CallWrapper<>(new HistorySummary()));
+
+        Assert.assertFalse(tasklet.get().isEmpty());
+        try (Stream<Path> files = Files.list(staging.resolve(depositor))) {
+            Assert.assertTrue(files.noneMatch(path -> path.getFileName().toString()
+                    .endsWith(SnapshotPackager.SIDECAR_EXTENSION)));
+        }
+    }
+
+    /**
+     * Create a snapshot with three files of 4000 bytes, so that a max size of 6000 bytes puts
+     * each file in its own bag
+     *
+     * @return the directory holding the snapshot
+     */
+    private Path snapshot(String id) throws IOException {
+        Path snapshots = folder.newFolder("snapshots").toPath();
+        Path snapshot = Files.createDirectories(snapshots.resolve(id).resolve("data"))
+                .getParent();
+        ImmutableList.Builder<String> sha256 = ImmutableList.builder();
+        ImmutableList.Builder<String> md5 = ImmutableList.builder();
+        ImmutableList.Builder<String> properties = ImmutableList.builder();
+        for (int i = 0; i < 3; i++) {
+            byte[] contents = new byte[4000];
+            contents[0] = (byte) i;
+            Files.write(snapshot.resolve("data/file-" + i), contents);
+            sha256.add(Hashing.sha256().hashBytes(contents) + "  data/file-" + i);
+            md5.add(Hashing.md5().hashBytes(contents) + "  data/file-" + i);
+            properties.add("{\"file-" + i + "\": {\"content-size\": \"4000\"}}");
+        }
+        Files.write(snapshot.resolve("manifest-sha256.txt"), sha256.build(), UTF_8);
+        Files.write(snapshot.resolve("manifest-md5.txt"), md5.build(), UTF_8);
+        Files.write(snapshot.resolve("content-properties.json"),
+                ("[" + String.join(",", properties.build()) + "]").getBytes(UTF_8));
+        Files.write(snapshot.resolve(".collection-snapshot.properties"), new byte[0]);
+        return snapshots;
+    }
+
+    @Test
+    public void testSplitTagFiles() throws IOException {
+        String id = "split-snapshot";
+        String depositor = "test-depositor";
+        Path snapshots = snapshot(id);
+        Path staging = folder.newFolder("staging").toPath();
+        Path work = folder.newFolder("work").toPath();
+        stagingProperties.setPosix(new Posix().setPath(staging.toString()));
+        bagProperties.setMaxSize(6000)
+                .setUnit(Unit.BYTE)
+                .setStreaming(new BagProperties.Streaming().setWorkDirectory(work.toString()));
+        BridgeContext splitContext = new BridgeContext(bridge, "", "manifest-sha256.txt",
+                snapshots.toString(), snapshots.toString(), Push.CHRONOPOLIS, "bridge");
+        when(bridge.postHistory(eq(id), any(History.class)))
+                .thenReturn(new CallWrapper<>(new HistorySummary()));
+
+        tasklet = new BaggingTasklet(id, depositor, splitContext, bagProperties,
+                stagingProperties, notifier);
+
+        Assert.assertEquals(3, tasklet.get().size());
+        // each bag only carries the md5 and content properties for its own file
+        try (Stream<Path> bags = Files.list(staging.resolve(depositor))) {
+            bags.filter(Files::isDirectory).forEach(bag -> {
+                try {
+                    List<String> md5 = Files.readAllLines(bag.resolve("manifest-md5.txt"));
+                    Assert.assertEquals(1, md5.size());
+                    String file = md5.get(0).substring(md5.get(0).indexOf("data/") + 5);
+                    String properties = new String(
+                            Files.readAllBytes(bag.resolve("content-properties.json")), UTF_8);
+                    for (int i = 0; i < 3; i++) {
+                        Assert.assertEquals(file.equals("file-" + i),
+                                properties.contains("\"file-" + i + "\""));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        Assert.assertFalse(Files.exists(work.resolve(id)));
+    }
+
+    @Test
+    public void testParallelWriteFailure() throws IOException {
+        String id = "parallel-snapshot";
+        String depositor = "test-depositor";
+        Path snapshots = snapshot(id);
+
+        stagingProperties.setPosix(new Posix().setPath(folder.newFolder("staging").toString()));
+        bagProperties.setMaxSize(6000)
+                .setUnit(Unit.BYTE)
+                .setWrite(new BagProperties.Write().setParallel(2))
+                .setStreaming(new BagProperties.Streaming()
+                        .setWorkDirectory(folder.newFolder("work").toString()));
+        BridgeContext parallelContext = new BridgeContext(bridge, "", "manifest-sha256.txt",
+                snapshots.toString(), snapshots.toString(), Push.CHRONOPOLIS, "bridge");
+
+        // the first bag is written slowly and the second is rejected by the writers
+        AtomicInteger submitted = new AtomicInteger();
+        AtomicInteger ran = new AtomicInteger();
+        Executor writers = command -> {
+            if (submitted.incrementAndGet() == 2) {
+                throw new RejectedExecutionException("writers are full");
+            }
+
+            new Thread(() -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ran.incrementAndGet();
+                command.run();
+            }).start();
+        };
+
+        tasklet = new BaggingTasklet(id, depositor, parallelContext, bagProperties,
+                stagingProperties, notifier, writers);
+
+        Assert.assertTrue(tasklet.get().isEmpty());
+        Assert.assertEquals(2, submitted.get());
+        // the write which was accepted must have finished before the tasklet returned
+        Assert.assertEquals(1, ran.get());
+        verify(bridge, never()).postHistory(anyString(), any(History.class));
+        verify(notifier, times(1)).notify(anyString(), anyString());
+    }
 }
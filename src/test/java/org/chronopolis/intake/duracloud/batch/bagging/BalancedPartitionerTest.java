@@ -0,0 +1,109 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.hash.Hashing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for {@link BalancedPartitioner}
+ *
+ * @author shake
+ */
+public class BalancedPartitionerTest {
+
+    private int entries = 0;
+
+    private void add(CompactManifest manifest, String directory, int files, long size) {
+        for (int i = 0; i < files; i++) {
+            String digest = Hashing.sha256().hashInt(entries++).toString();
+            manifest.add(String.format("data/%s/file-%02d", directory, i), digest, size);
+        }
+    }
+
+    /**
+     * 490 bytes over a max of 200 bytes: greedy would create bags of 200, 200 and 90 bytes
+     */
+    private CompactManifest manifest() {
+        CompactManifest manifest = new CompactManifest();
+        add(manifest, "a", 10, 30);
+        add(manifest, "b", 5, 20);
+        add(manifest, "c", 1, 90);
+        return manifest.trim();
+    }
+
+    @Test
+    public void testBagCount() {
+        BalancedPartitioner partitioner = new BalancedPartitioner(100, 4);
+        Assert.assertEquals(1, partitioner.bagCount(50));
+        Assert.assertEquals(1, partitioner.bagCount(100));
+        Assert.assertEquals(4, partitioner.bagCount(250));
+        Assert.assertEquals(8, partitioner.bagCount(500));
+    }
+
+    @Test
+    public void testBagCountByFiles() {
+        BalancedPartitioner partitioner = new BalancedPartitioner(100, 2).withMaxFiles(10);
+        Assert.assertEquals(1, partitioner.bagCount(50, 10));
+        Assert.assertEquals(2, partitioner.bagCount(50, 11));
+        Assert.assertEquals(6, partitioner.bagCount(50, 55));
+    }
+
+    @Test
+    public void testPlanLimitsFiles() {
+        // 490 bytes fit in a single bag, but 16 files need at least 4 bags of 5
+        List<BalancedPartitioner.Bin> bins = new BalancedPartitioner(1000, 1)
+                .withMaxFiles(5)
+                .plan(manifest());
+
+        Assert.assertTrue(bins.size() >= 4);
+        bins.forEach(bin -> Assert.assertTrue(bin.getFiles() <= 5));
+        Assert.assertEquals(16, bins.stream().mapToLong(BalancedPartitioner.Bin::getFiles).sum());
+        Assert.assertEquals(490, bins.stream().mapToLong(BalancedPartitioner.Bin::getSize).sum());
+    }
+
+    @Test
+    public void testPlanIsBalanced() {
+        List<BalancedPartitioner.Bin> bins = new BalancedPartitioner(200, 2).plan(manifest());
+
+        Assert.assertEquals(4, bins.size());
+        long max = bins.stream().mapToLong(BalancedPartitioner.Bin::getSize).max().orElse(0);
+        long min = bins.stream().mapToLong(BalancedPartitioner.Bin::getSize).min().orElse(0);
+        Assert.assertTrue(max <= 200);
+        Assert.assertTrue("Bags should be within 60 bytes, were " + min + " to " + max,
+                max - min <= 60);
+        Assert.assertEquals(16, bins.stream().mapToLong(BalancedPartitioner.Bin::getFiles).sum());
+        Assert.assertEquals(490, bins.stream().mapToLong(BalancedPartitioner.Bin::getSize).sum());
+    }
+
+    @Test
+    public void testPartitionKeepsDirectoriesTogether() throws IOException {
+        Path work = Files.createTempDirectory("balancedpartitionertest");
+        work.toFile().deleteOnExit();
+
+        List<ManifestPartition> partitions =
+                new BalancedPartitioner(200, 2).partition(manifest(), work);
+
+        List<String> all = new ArrayList<>();
+        for (ManifestPartition partition : partitions) {
+            List<String> lines = Files.readAllLines(partition.getManifest());
+            Assert.assertEquals(partition.getFiles(), lines.size());
+            all.addAll(lines);
+
+            // anything from b should have stayed together
+            long fromB = lines.stream().filter(line -> line.contains("data/b/")).count();
+            Assert.assertTrue(fromB == 0 || fromB == 5);
+        }
+
+        Assert.assertEquals(16, all.size());
+        Assert.assertEquals(16, all.stream().distinct().collect(Collectors.toList()).size());
+        Assert.assertTrue(all.get(0).endsWith("data/a/file-00"));
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.hash.Hashing;
+import org.chronopolis.bag.core.PayloadManifest;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests for {@link CompactManifest}
+ *
+ * @author shake
+ */
+public class CompactManifestTest {
+
+    private static final int ENTRIES = 100_000;
+    private static final int MEMORY_ENTRIES = 20_000;
+    private static final int DIGEST_LENGTH = 64;
+    private static final int GC_ATTEMPTS = 3;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Create manifest lines for a snapshot with 100 directories of 1000 files each
+     */
+    private List<String> lines() {
+        List<String> lines = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            String path = String.format("data/collection/dir-%03d/file-%06d.dat", i / 1000, i);
+            lines.add(Hashing.sha256().hashInt(i) + "  " + path);
+        }
+        return lines;
+    }
+
+    private String digest(String line) {
+        return line.substring(0, DIGEST_LENGTH);
+    }
+
+    private String path(String line) {
+        return line.substring(DIGEST_LENGTH + 2);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        List<String> lines = lines();
+        CompactManifest manifest = new CompactManifest();
+        lines.forEach(line -> manifest.add(path(line), digest(line), line.length()));
+        manifest.trim();
+
+        Assert.assertEquals(ENTRIES, manifest.size());
+        Iterator<CompactManifest.Entry> iterator = manifest.iterator();
+        long total = 0;
+        for (String line : lines) {
+            CompactManifest.Entry entry = iterator.next();
+            Assert.assertEquals(line, entry.toManifestLine());
+            Assert.assertEquals(line.length(), entry.getSize());
+            total += entry.getSize();
+        }
+        Assert.assertFalse(iterator.hasNext());
+        Assert.assertEquals(total, manifest.getTotalSize());
+        Assert.assertEquals(digest(lines.get(42)), manifest.digest(42));
+    }
+
+    @Test
+    public void testUnicodePaths() {
+        String digest = Hashing.sha256().hashInt(0).toString();
+        CompactManifest manifest = new CompactManifest()
+                .add("data/résumé-1.txt", digest, 1)
+                .add("data/résumé-2.txt", digest, Long.MAX_VALUE);
+
+        Iterator<CompactManifest.Entry> iterator = manifest.iterator();
+        Assert.assertEquals("data/résumé-1.txt", iterator.next().getPath());
+        Assert.assertEquals(Long.MAX_VALUE, iterator.next().getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDigest() {
+        new CompactManifest().add("data/test-file", "not-a-sha256-digest", 0);
+    }
+
+    /**
+     * Compare the heap held by the PayloadManifest loaded for a snapshot today, a PayloadFile with
+     * its Paths and digest for every line, against a CompactManifest of the same lines. Both are
+     * measured the same way, as the growth of the heap after a gc while they are still reachable.
+     */
+    @Test
+    public void testMemoryPerEntry() throws IOException {
+        List<String> lines = lines().subList(0, MEMORY_ENTRIES);
+        Path snapshot = folder.newFolder("snapshot").toPath();
+        Path manifestFile = snapshot.resolve("manifest-sha256.txt");
+        Files.write(manifestFile, lines, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            Path file = snapshot.resolve(path(line));
+            Files.createDirectories(file.getParent());
+            Files.createFile(file);
+        }
+
+        long before = usedAfterGc();
+        PayloadManifest payload;
+        try (InputStream input = Files.newInputStream(manifestFile)) {
+            payload = PayloadManifest.loadFromStream(input, snapshot);
+        }
+        long payloadBytes = usedAfterGc() - before;
+
+        before = usedAfterGc();
+        CompactManifest compact = new CompactManifest();
+        lines.forEach(line -> compact.add(path(line), digest(line), 0));
+        compact.trim();
+        long compactBytes = usedAfterGc() - before;
+
+        // both need to still be reachable when measured
+        Assert.assertEquals(MEMORY_ENTRIES, payload.getFiles().size());
+        Assert.assertEquals(MEMORY_ENTRIES, compact.size());
+        Assume.assumeTrue("Heap usage could not be measured", compactBytes > 0);
+
+        long perFile = payloadBytes / MEMORY_ENTRIES;
+        long perEntry = compactBytes / MEMORY_ENTRIES;
+        Assert.assertTrue("Expected 5x savings, got " + perFile + " vs " + perEntry + " bytes",
+                perFile >= 5 * perEntry);
+    }
+
+    private long usedAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < GC_ATTEMPTS; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Tests for {@link LinkProbe}
+ *
+ * @author shake
+ */
+public class LinkProbeTest {
+
+    private Path source;
+    private Path target;
+
+    @Before
+    public void setup() throws IOException {
+        Path tmp = Files.createTempDirectory("linkprobetest");
+        tmp.toFile().deleteOnExit();
+        source = Files.createDirectories(tmp.resolve("snapshots"));
+        target = Files.createDirectories(tmp.resolve("staging"));
+    }
+
+    @Test
+    public void testProbeSameFilesystem() throws IOException {
+        Files.write(source.resolve("test-file"), "payload".getBytes(StandardCharsets.UTF_8));
+
+        // both directories are on the same filesystem so a hardlink should always work
+        Assert.assertEquals(LinkMode.HARDLINK, LinkProbe.probe(source, target, false));
+        try (Stream<Path> files = Files.list(target)) {
+            Assert.assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testProbeEmptySource() {
+        Assert.assertEquals(LinkMode.HARDLINK, LinkProbe.probe(source, target, false));
+        Assert.assertEquals(0, source.toFile().list().length);
+        Assert.assertEquals(0, target.toFile().list().length);
+    }
+
+    @Test
+    public void testPlaceLeavesCopyToCaller() throws IOException {
+        Path origin = source.resolve("test-file");
+        Path placed = target.resolve("test-file");
+        Files.write(origin, "payload".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals(LinkMode.COPY, LinkProbe.place(LinkMode.COPY, origin, placed));
+        Assert.assertFalse(Files.exists(placed));
+        Assert.assertEquals(LinkMode.HARDLINK, LinkProbe.place(LinkMode.HARDLINK, origin, placed));
+        Assert.assertArrayEquals(Files.readAllBytes(origin), Files.readAllBytes(placed));
+    }
+
+}
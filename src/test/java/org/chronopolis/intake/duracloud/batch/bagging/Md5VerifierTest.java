@@ -0,0 +1,73 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.hash.Hashing;
+import org.chronopolis.intake.duracloud.batch.support.Md5Index;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link Md5Verifier}
+ *
+ * @author shake
+ */
+public class Md5VerifierTest {
+
+    private Path work;
+    private Md5Index index;
+
+    @Before
+    public void setup() throws IOException {
+        work = Files.createTempDirectory("md5verifiertest");
+        work.toFile().deleteOnExit();
+        Path manifest = work.resolve("manifest-md5.txt");
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            lines.add(Hashing.md5().hashInt(i) + "  data/file-" + i);
+        }
+        Files.write(manifest, lines, StandardCharsets.UTF_8);
+        index = Md5Index.build(manifest, work.resolve("md5-index"));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testMatching() throws IOException {
+        Md5Verifier verifier = new Md5Verifier(index);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(verifier.verify("bag-0", "data/file-" + i, Hashing.md5().hashInt(i)));
+        }
+
+        Assert.assertTrue(verifier.isSuccess());
+        Assert.assertEquals(100, verifier.getChecked());
+        Assert.assertTrue(verifier.getProblems().isEmpty());
+    }
+
+    @Test
+    public void testMismatchAndMissing() throws IOException {
+        Md5Verifier verifier = new Md5Verifier(index);
+        Assert.assertTrue(verifier.verify("bag-0", "data/file-0", Hashing.md5().hashInt(0)));
+        Assert.assertFalse(verifier.verify("bag-0", "data/file-1", Hashing.md5().hashInt(2)));
+        Assert.assertFalse(verifier.verify("bag-1", "data/not-listed", Hashing.md5().hashInt(3)));
+
+        Assert.assertFalse(verifier.isSuccess());
+        Assert.assertEquals(3, verifier.getChecked());
+        Assert.assertEquals(1, verifier.getMismatched());
+        Assert.assertEquals(1, verifier.getMissing());
+        // one line for each count plus an example of each
+        Assert.assertEquals(4, verifier.getProblems().size());
+    }
+
+}
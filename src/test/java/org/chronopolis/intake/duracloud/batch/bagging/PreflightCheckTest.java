@@ -0,0 +1,106 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for {@link PreflightCheck}
+ *
+ * @author shake
+ */
+public class PreflightCheckTest {
+
+    private Path snapshot;
+    private Path manifest;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws IOException {
+        snapshot = Files.createTempDirectory("preflightchecktest");
+        snapshot.toFile().deleteOnExit();
+        manifest = snapshot.resolve("manifest-sha256.txt");
+        Files.createDirectories(snapshot.resolve("data"));
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCompleteSnapshot() throws IOException {
+        // enough files to be split over a few batches
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            Files.write(snapshot.resolve("data/file-" + i), new byte[10]);
+            lines.add("digest  data/file-" + i);
+        }
+        Files.write(manifest, lines, StandardCharsets.UTF_8);
+
+        SnapshotDetails details = new SnapshotDetails()
+                .setContentItemCount("2500")
+                .setTotalSizeInBytes("25000");
+        PreflightCheck.Result result =
+                new PreflightCheck(snapshot, manifest, executor, 2).run(details);
+
+        Assert.assertTrue(result.getProblems().toString(), result.isSuccess());
+        Assert.assertEquals(2500, result.getFiles());
+        Assert.assertEquals(25000, result.getBytes());
+    }
+
+    @Test
+    public void testBrokenSnapshotReportsEverything() throws IOException {
+        Files.write(snapshot.resolve("data/present"), new byte[10]);
+        Files.write(manifest, ImmutableList.of(
+                "digest  data/present",
+                "digest  data/missing-1",
+                "digest  data/missing-2",
+                "not-a-manifest-line"), StandardCharsets.UTF_8);
+
+        SnapshotDetails details = new SnapshotDetails()
+                .setContentItemCount("5")
+                .setTotalSizeInBytes("100");
+        PreflightCheck.Result result =
+                new PreflightCheck(snapshot, manifest, executor, 2).run(details);
+
+        Assert.assertFalse(result.isSuccess());
+        Assert.assertEquals(2, result.getMissing());
+        Assert.assertEquals(1, result.getInvalid());
+
+        // the size is not compared when files are missing
+        List<String> problems = result.getProblems();
+        Assert.assertEquals(3, problems.size());
+        Assert.assertTrue(problems.get(0).contains("data/missing-1"));
+        Assert.assertTrue(problems.get(2).contains("reported 5"));
+    }
+
+    @Test
+    public void testSizeMismatch() throws IOException {
+        Files.write(snapshot.resolve("data/present"), new byte[10]);
+        Files.write(manifest, ImmutableList.of("digest  data/present"), StandardCharsets.UTF_8);
+
+        SnapshotDetails details = new SnapshotDetails()
+                .setContentItemCount("1")
+                .setTotalSizeInBytes("11");
+        PreflightCheck.Result result =
+                new PreflightCheck(snapshot, manifest, executor, 2).run(details);
+
+        Assert.assertEquals(1, result.getProblems().size());
+        Assert.assertTrue(result.getProblems().get(0).contains("reported 11"));
+    }
+
+}
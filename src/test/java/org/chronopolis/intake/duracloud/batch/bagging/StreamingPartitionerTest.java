@@ -0,0 +1,158 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests for {@link StreamingPartitioner}
+ *
+ * @author shake
+ */
+public class StreamingPartitionerTest {
+
+    private Path snapshot;
+    private Path manifest;
+    private Path work;
+
+    @Before
+    public void setup() throws IOException {
+        Path tmp = Files.createTempDirectory("streamingpartitionertest");
+        tmp.toFile().deleteOnExit();
+        snapshot = Files.createDirectories(tmp.resolve("snapshot"));
+        manifest = snapshot.resolve("manifest-sha256.txt");
+        work = tmp.resolve("work");
+        Files.createDirectories(snapshot.resolve("data"));
+    }
+
+    private void payload(String name, int size) throws IOException {
+        Files.write(snapshot.resolve("data").resolve(name), new byte[size]);
+    }
+
+    @Test
+    public void testPartitionsInPathOrder() throws IOException {
+        payload("e", 40);
+        payload("d", 40);
+        payload("c", 40);
+        payload("b", 40);
+        payload("a", 40);
+        Files.write(manifest, ImmutableList.of(
+                "digest-e  data/e",
+                "digest-d  data/d",
+                "digest-c  data/c",
+                "digest-b  data/b",
+                "digest-a  data/a"), StandardCharsets.UTF_8);
+
+        List<ManifestPartition> partitions = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        try (StreamingPartitioner partitioner =
+                     new StreamingPartitioner(snapshot, manifest, work, 100, 2)) {
+            partitioner.spill();
+            Assert.assertEquals(3, partitioner.getRuns());
+            Assert.assertEquals(5, partitioner.getFiles());
+            Assert.assertEquals(200, partitioner.getSize());
+            Assert.assertTrue(partitioner.getRejected().isEmpty());
+
+            Iterator<ManifestPartition> iterator = partitioner.partitions();
+            while (iterator.hasNext()) {
+                ManifestPartition partition = iterator.next();
+                partitions.add(partition);
+                lines.addAll(Files.readAllLines(partition.getManifest()));
+            }
+        }
+
+        Assert.assertEquals(3, partitions.size());
+        Assert.assertEquals(80, partitions.get(0).getSize());
+        Assert.assertEquals(2, partitions.get(1).getFiles());
+        Assert.assertEquals(40, partitions.get(2).getSize());
+        Assert.assertEquals(ImmutableList.of(
+                "digest-a  data/a",
+                "digest-b  data/b",
+                "digest-c  data/c",
+                "digest-d  data/d",
+                "digest-e  data/e"), lines);
+        Assert.assertFalse(Files.exists(work));
+    }
+
+    @Test
+    public void testLargeFileGetsOwnPartition() throws IOException {
+        payload("large", 500);
+        payload("small", 10);
+        Files.write(manifest, ImmutableList.of(
+                "digest-large  data/large",
+                "digest-small  data/small"), StandardCharsets.UTF_8);
+
+        try (StreamingPartitioner partitioner =
+                     new StreamingPartitioner(snapshot, manifest, work, 100, 10)) {
+            Iterator<ManifestPartition> iterator = partitioner.spill().partitions();
+            Assert.assertEquals(500, iterator.next().getSize());
+            Assert.assertEquals(10, iterator.next().getSize());
+            Assert.assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void testMaxFilesPerPartition() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            payload("small-" + i, 1);
+            lines.add("digest-" + i + "  data/small-" + i);
+        }
+        Files.write(manifest, lines, StandardCharsets.UTF_8);
+
+        try (StreamingPartitioner partitioner =
+                     new StreamingPartitioner(snapshot, manifest, work, 100, 10)) {
+            Iterator<ManifestPartition> iterator =
+                    partitioner.withMaxFiles(2).spill().partitions();
+            Assert.assertEquals(2, iterator.next().getFiles());
+            Assert.assertEquals(2, iterator.next().getFiles());
+            Assert.assertEquals(1, iterator.next().getFiles());
+            Assert.assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void testPathWithTab() throws IOException {
+        payload("tab\tfile", 10);
+        payload("other", 10);
+        Files.write(manifest, ImmutableList.of(
+                "digest-tab  data/tab\tfile",
+                "digest-other  data/other"), StandardCharsets.UTF_8);
+
+        try (StreamingPartitioner partitioner =
+                     new StreamingPartitioner(snapshot, manifest, work, 100, 1)) {
+            ManifestPartition partition = partitioner.spill().partitions().next();
+            Assert.assertEquals(20, partition.getSize());
+            Assert.assertEquals(ImmutableList.of(
+                    "digest-other  data/other",
+                    "digest-tab  data/tab\tfile"),
+                    Files.readAllLines(partition.getManifest()));
+        }
+    }
+
+    @Test
+    public void testMissingFileIsRejected() throws IOException {
+        payload("a", 10);
+        Files.write(manifest, ImmutableList.of(
+                "digest-a  data/a",
+                "digest-missing  data/missing",
+                "not-a-manifest-line"), StandardCharsets.UTF_8);
+
+        try (StreamingPartitioner partitioner =
+                     new StreamingPartitioner(snapshot, manifest, work, 100, 10)) {
+            partitioner.spill();
+            Assert.assertEquals(1, partitioner.getFiles());
+            Assert.assertEquals(2, partitioner.getRejected().size());
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.chronopolis.intake.duracloud.batch.bagging;
+
+import com.google.common.collect.ImmutableMap;
+import org.chronopolis.intake.duracloud.config.props.BagProperties;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link WriteThrottle}
+ *
+ * @author shake
+ */
+public class WriteThrottleTest {
+
+    @Test
+    public void testUnlimited() {
+        WriteThrottle throttle = new WriteThrottle(new BagProperties.Throttle());
+
+        Assert.assertFalse(throttle.isLimited("bridge"));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, throttle.acquire("bridge", 1024 * 1024, 1));
+        }
+        Assert.assertEquals(0, throttle.getThrottledMillis());
+    }
+
+    @Test
+    public void testFilesPerSecond() {
+        BagProperties.Throttle properties = new BagProperties.Throttle();
+        properties.setFilesPerSecond(20L);
+        WriteThrottle throttle = new WriteThrottle(properties);
+
+        // the first file is free, the next 10 need to wait 50ms each
+        long waited = 0;
+        for (int i = 0; i < 11; i++) {
+            waited += throttle.acquire("bridge", 0, 1);
+        }
+
+        Assert.assertTrue(throttle.isLimited("bridge"));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(waited) >= 400);
+        Assert.assertTrue(throttle.getThrottledMillis() >= 400);
+    }
+
+    @Test
+    public void testBridgeLimitChangedAtRuntime() {
+        BagProperties.Throttle properties = new BagProperties.Throttle()
+                .setBridges(ImmutableMap.of("limited",
+                        new BagProperties.Limit().setBytesPerSecond(1024L)));
+        WriteThrottle throttle = new WriteThrottle(properties);
+
+        Assert.assertTrue(throttle.isLimited("limited"));
+        Assert.assertFalse(throttle.isLimited("other"));
+
+        throttle.setBridgeLimit("limited", 0, 0);
+        throttle.setBridgeLimit("other", 0, 10);
+        Assert.assertFalse(throttle.isLimited("limited"));
+        Assert.assertTrue(throttle.isLimited("other"));
+        Assert.assertEquals("0 bytes/s, 10 files/s", throttle.getBridgeLimit("other"));
+    }
+
+}
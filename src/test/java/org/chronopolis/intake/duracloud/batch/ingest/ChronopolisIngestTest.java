@@ -26,18 +26,28 @@ import org.chronopolis.test.support.ErrorCallWrapper;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -206,6 +216,47 @@ public class ChronopolisIngestTest extends BatchTestBase {
         verify(staging, never()).createStorageForBag(anyLong(), anyString(), any());
     }
 
+    @Test
+    public void ingestConcurrently() throws IOException {
+        stagingProperties.setPosix(new Posix()
+                .setPath(Files.createTempDirectory("ingest-concurrently").toString()));
+        settings.getChron().setIngestConcurrency(2);
+
+        List<BagReceipt> receipts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            receipts.add(receipt());
+        }
+
+        // hold on to each request so they only complete when we say so
+        Queue<Callback<Bag>> pending = new ArrayDeque<>();
+        @SuppressWarnings("unchecked")
+        Call<Bag> call = mock(Call.class);
+        doAnswer(invocation -> pending.add(invocation.getArgument(0)))
+                .when(call).enqueue(any());
+        when(depositorService.getDepositorBag(eq(data.depositor()), anyString()))
+                .thenReturn(call);
+
+        ChronopolisIngest ingest = new ChronopolisIngest(data, receipts, bags,
+                fileService, staging, depositorService, settings, stagingProperties, bridgeContext,
+                factory);
+        CompletableFuture<Void> future = ingest.ingest();
+
+        int completed = 0;
+        while (!pending.isEmpty()) {
+            Assert.assertFalse(future.isDone());
+            Assert.assertTrue(pending.size() <= 2);
+            Bag bag = createChronBag(BagStatus.INITIALIZED, ImmutableSet.of());
+            pending.poll().onResponse(call, Response.success(bag));
+            ++completed;
+        }
+
+        Assert.assertEquals(receipts.size(), completed);
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isCompletedExceptionally());
+        verify(depositorService, times(5)).getDepositorBag(anyString(), anyString());
+        verify(bags, never()).deposit(any());
+    }
+
     private class ChronIngestFactory extends ChronopolisIngest.IngestSupplierFactory {
 
         @Override
@@ -0,0 +1,54 @@
+package org.chronopolis.intake.duracloud.batch.ingest;
+
+import com.google.common.hash.Hashing;
+import org.chronopolis.intake.duracloud.batch.bagging.SnapshotPackager;
+import org.chronopolis.rest.models.enums.FixityAlgorithm;
+import org.chronopolis.rest.service.BagFileCsvResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Tests for {@link SidecarCsvGenerator}
+ *
+ * @author shake
+ */
+public class SidecarCsvGeneratorTest {
+
+    @Test
+    public void testPayloadDigestsFromSidecar() throws IOException {
+        Path tmp = Files.createTempDirectory("sidecartest");
+        tmp.toFile().deleteOnExit();
+
+        Path bag = tmp.resolve("test-bag");
+        Files.createDirectories(bag.resolve("data"));
+        Files.write(bag.resolve("data/test-file"), "payload".getBytes(StandardCharsets.UTF_8));
+        Files.write(bag.resolve("bagit.txt"), "tag".getBytes(StandardCharsets.UTF_8));
+
+        // the digest in the sidecar is used as is, so it does not need to match the file
+        Path sidecar = SnapshotPackager.sidecar(bag);
+        Files.write(sidecar, "sidecar-digest\t-\t7\tdata/test-file\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        Path output = tmp.resolve("output");
+        BagFileCsvResult result =
+                new SidecarCsvGenerator(output, bag, sidecar, FixityAlgorithm.SHA_256).call();
+
+        Assert.assertTrue(result.getCsv().isPresent());
+        List<String> lines = Files.readAllLines(result.getCsv().get());
+        String tagDigest = Hashing.sha256().hashString("tag", StandardCharsets.UTF_8).toString();
+
+        Assert.assertEquals(3, lines.size());
+        Assert.assertTrue(lines.stream().anyMatch(line ->
+                line.startsWith("/data/test-file,7,sidecar-digest,")));
+        Assert.assertTrue(lines.stream().anyMatch(line ->
+                line.startsWith("/bagit.txt,3," + tagDigest + ",")));
+        Assert.assertFalse(Files.exists(sidecar));
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.chronopolis.intake.duracloud.batch.journal;
+
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.Push;
+import org.chronopolis.intake.duracloud.model.BagReceipt;
+import org.chronopolis.intake.duracloud.remote.BridgeAPI;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link FileJobJournal}
+ *
+ * @author shake
+ */
+public class FileJobJournalTest {
+
+    private final String empty = "";
+    private final BridgeContext context = new BridgeContext(mock(BridgeAPI.class),
+            empty, empty, empty, empty, Push.NONE, "bridge-test");
+    private final List<BagReceipt> receipts =
+            ImmutableList.of(new BagReceipt().setName("bag-0").setReceipt("receipt-0"));
+
+    private Path tmp;
+
+    @Before
+    public void setup() throws IOException {
+        tmp = Files.createTempDirectory("journaltest");
+        tmp.toFile().deleteOnExit();
+    }
+
+    @Test
+    public void testResumeFromLatestStage() {
+        FileJobJournal journal = new FileJobJournal(tmp, 100);
+        journal.record("snapshot-0", context, JobStage.QUEUED, null, ImmutableList.of());
+        journal.record("snapshot-0", context, JobStage.BAGGING, null, ImmutableList.of());
+        journal.record("snapshot-0", context, JobStage.BAGGED, null, receipts);
+        journal.record("snapshot-1", context, JobStage.QUEUED, null, ImmutableList.of());
+        journal.record("snapshot-1", context, JobStage.DONE, null, ImmutableList.of());
+        journal.close();
+
+        Collection<JournalEntry> pending = new FileJobJournal(tmp, 100).pending();
+        Assert.assertEquals(1, pending.size());
+
+        JournalEntry entry = pending.iterator().next();
+        Assert.assertEquals("snapshot-0", entry.getSnapshotId());
+        Assert.assertEquals("bridge-test", entry.getBridge());
+        Assert.assertEquals(JobStage.BAGGED, entry.getStage());
+        Assert.assertEquals(1, entry.getReceipts().size());
+        Assert.assertEquals("receipt-0", entry.getReceipts().get(0).getReceipt());
+    }
+
+    @Test
+    public void testTruncatedEntryIsSkipped() throws IOException {
+        FileJobJournal journal = new FileJobJournal(tmp, 100);
+        journal.record("snapshot-0", context, JobStage.INGESTING, null, receipts);
+        journal.close();
+
+        Files.write(tmp.resolve("journal.log"),
+                "{\"snapshotId\":\"snapshot-0\",\"sta".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        Collection<JournalEntry> pending = new FileJobJournal(tmp, 100).pending();
+        Assert.assertEquals(1, pending.size());
+        Assert.assertEquals(JobStage.INGESTING, pending.iterator().next().getStage());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        FileJobJournal journal = new FileJobJournal(tmp, 4);
+        for (int i = 0; i < 10; i++) {
+            journal.record("snapshot-" + i, context, JobStage.QUEUED, null, ImmutableList.of());
+            journal.record("snapshot-" + i, context, JobStage.DONE, null, ImmutableList.of());
+        }
+        journal.record("snapshot-10", context, JobStage.QUEUED, null, ImmutableList.of());
+        journal.close();
+
+        // only the last entries written since compaction should remain
+        Assert.assertTrue(Files.readAllLines(tmp.resolve("journal.log")).size() < 4);
+        Assert.assertEquals(1, new FileJobJournal(tmp, 4).pending().size());
+    }
+
+}
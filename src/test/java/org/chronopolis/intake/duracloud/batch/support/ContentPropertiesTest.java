@@ -0,0 +1,110 @@
+package org.chronopolis.intake.duracloud.batch.support;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Tests for {@link ContentProperties}
+ *
+ * @author shake
+ */
+public class ContentPropertiesTest {
+
+    private static final int ITEMS = 1000;
+    private static final int BAGS = 2;
+    private static final String MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+    private static final String COLLECTION = ".collection-snapshot.properties";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String item(String id, int size) {
+        return "{\n  \"" + id + "\": {\n"
+                + "    \"content-size\": \"" + size + "\",\n"
+                + "    \"content-mimetype\": \"text/plain\",\n"
+                + "    \"content-checksum\": \"" + MD5 + "\",\n"
+                + "    \"tags\": [\"a\", 1.50, true, null]\n"
+                + "  }\n}";
+    }
+
+    private String id(int i) {
+        return "dir/file-é-" + i;
+    }
+
+    @Test
+    public void testSplit() throws IOException {
+        StringBuilder json = new StringBuilder("[\n");
+        StringBuilder md5 = new StringBuilder();
+        StringBuilder[] bags = new StringBuilder[BAGS];
+        for (int bag = 0; bag < BAGS; bag++) {
+            bags[bag] = new StringBuilder();
+        }
+        for (int i = 0; i < ITEMS; i++) {
+            json.append(item(id(i), i)).append(",\n");
+            md5.append(MD5).append("  data/").append(id(i)).append("\n");
+            // every third file is left out of the bags
+            if (i % 3 != 2) {
+                bags[i % 3].append(MD5).append("  data/").append(id(i)).append("\n");
+            }
+        }
+        json.append(item(COLLECTION, 299)).append("\n]\n");
+
+        Path properties = folder.newFile("content-properties.json").toPath();
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(properties, json.toString().getBytes(UTF_8));
+        Files.write(manifest, md5.toString().getBytes(UTF_8));
+
+        Path work = folder.newFolder("work").toPath();
+        try (Md5Index index = Md5Index.build(manifest, work.resolve("idx"))) {
+            for (int bag = 0; bag < BAGS; bag++) {
+                Path files = folder.newFile("bag-" + bag).toPath();
+                Files.write(files, bags[bag].toString().getBytes(UTF_8));
+                index.assign(files, bag);
+            }
+
+            ContentProperties split = new ContentProperties(properties, work);
+            split.split(index, BAGS);
+
+            for (int bag = 0; bag < BAGS; bag++) {
+                JsonArray items;
+                try (Reader reader = Files.newBufferedReader(split.forBag(bag), UTF_8)) {
+                    items = new JsonParser().parse(reader).getAsJsonArray();
+                }
+
+                Set<String> ids = new HashSet<>();
+                for (JsonElement item : items) {
+                    item.getAsJsonObject().entrySet().forEach(entry -> ids.add(entry.getKey()));
+                }
+
+                int expected = 0;
+                for (int i = 0; i < ITEMS; i++) {
+                    boolean inBag = i % 3 == bag;
+                    Assert.assertEquals(id(i), inBag, ids.contains(id(i)));
+                    expected += inBag ? 1 : 0;
+                }
+                Assert.assertTrue(ids.contains(COLLECTION));
+                Assert.assertEquals(expected + 1, ids.size());
+
+                JsonElement tags = items.get(0).getAsJsonObject()
+                        .getAsJsonObject(id(bag))
+                        .get("tags");
+                Assert.assertEquals("[\"a\",1.50,true,null]", tags.toString());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.chronopolis.intake.duracloud.batch.support;
+
+import com.google.common.io.ByteStreams;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.Push;
+import org.chronopolis.intake.duracloud.remote.BridgeAPI;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link DuracloudMD5}
+ *
+ * @author shake
+ */
+public class DuracloudMD5Test {
+
+    private static final int LINES = 10_000;
+
+    private final String empty = "";
+    private final BridgeContext context = new BridgeContext(mock(BridgeAPI.class),
+            empty, empty, empty, empty, Push.NONE, "md5-test");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path manifest(String content) throws IOException {
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(manifest, content.getBytes(UTF_8));
+        return manifest;
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        StringBuilder content = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            String line = "d41d8cd98f00b204e9800998ecf8427e  data/dir-" + (i % 3)
+                    + "/file-é-" + i;
+            content.append(line).append("\n");
+            if (i % 3 == 1) {
+                expected.append(line).append("\n");
+            }
+        }
+
+        DuracloudMD5 md5 = new DuracloudMD5(manifest(content.toString()), context);
+        md5.setPredicate(line -> line.toString().contains("data/dir-1/"));
+
+        byte[] bytes = expected.toString().getBytes(UTF_8);
+        Assert.assertEquals(bytes.length, md5.getSize());
+        try (InputStream is = md5.getInputStream()) {
+            Assert.assertArrayEquals(bytes, ByteStreams.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testSingleByteReads() throws IOException {
+        Path manifest = manifest("abc  data/one\r\n\nabc  data/two");
+        DuracloudMD5 md5 = new DuracloudMD5(manifest, context);
+        md5.setPredicate(line -> line.length() > 0);
+
+        String expected = "abc  data/one\nabc  data/two\n";
+        Assert.assertEquals(expected.length(), md5.getSize());
+        StringBuilder read = new StringBuilder();
+        try (InputStream is = md5.getInputStream()) {
+            int b;
+            while ((b = is.read()) != -1) {
+                read.append((char) b);
+            }
+        }
+        Assert.assertEquals(expected, read.toString());
+    }
+
+    @Test
+    public void testUnfiltered() throws IOException {
+        String content = "abc  data/one\nabc  data/two\n";
+        DuracloudMD5 md5 = new DuracloudMD5(manifest(content), context);
+        Assert.assertEquals(content.length(), md5.getSize());
+    }
+
+}
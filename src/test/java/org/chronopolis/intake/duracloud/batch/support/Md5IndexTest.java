@@ -0,0 +1,190 @@
+package org.chronopolis.intake.duracloud.batch.support;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Tests for {@link Md5Index}
+ *
+ * @author shake
+ */
+public class Md5IndexTest {
+
+    private static final int LINES = 10_000;
+    private static final int BAGS = 4;
+    private static final String MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+    private static final String SHA =
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String path(int i) {
+        return "data/dir-" + (i % 7) + "/file-é-" + i;
+    }
+
+    @Test
+    public void testSelectByBag() throws IOException {
+        StringBuilder md5 = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            md5.append(MD5).append("  ").append(path(i)).append("\n");
+        }
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(manifest, md5.toString().getBytes(UTF_8));
+
+        try (Md5Index index = Md5Index.build(manifest, folder.getRoot().toPath().resolve("idx"))) {
+            Assert.assertEquals(LINES, index.size());
+
+            long total = 0;
+            for (int bag = 0; bag < BAGS; bag++) {
+                StringBuilder files = new StringBuilder();
+                StringBuilder expected = new StringBuilder();
+                // list the bag in reverse to check the lines come back in manifest order
+                for (int i = LINES - 1; i >= 0; i--) {
+                    if (i % BAGS == bag) {
+                        files.append(SHA).append("  ").append(path(i)).append("\n");
+                    }
+                }
+                for (int i = 0; i < LINES; i++) {
+                    if (i % BAGS == bag) {
+                        expected.append(MD5).append("  ").append(path(i)).append("\n");
+                    }
+                }
+                files.append(SHA).append("  data/not-in-the-md5-manifest\n");
+
+                Path bagManifest = folder.newFile("bag-" + bag).toPath();
+                Files.write(bagManifest, files.toString().getBytes(UTF_8));
+                Md5Index.Selection selection = index.select(bagManifest);
+                byte[] bytes = expected.toString().getBytes(UTF_8);
+                Assert.assertEquals(LINES / BAGS, selection.getLines());
+                Assert.assertEquals(bytes.length, selection.getSize());
+                try (InputStream is = selection.newInputStream()) {
+                    Assert.assertArrayEquals(bytes, ByteStreams.toByteArray(is));
+                }
+                total += selection.getSize();
+            }
+
+            Assert.assertEquals(Files.size(manifest), total);
+        }
+    }
+
+    @Test
+    public void testSegmentedTable() throws IOException {
+        StringBuilder md5 = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            md5.append(MD5).append("  ").append(path(i)).append("\n");
+        }
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(manifest, md5.toString().getBytes(UTF_8));
+        Path bag = folder.newFile("bag").toPath();
+        Files.write(bag, (SHA + "  " + path(LINES - 1) + "\n").getBytes(UTF_8));
+
+        // 16 slots per segment spreads the table over many mappings
+        Path idx = folder.getRoot().toPath().resolve("idx");
+        try (Md5Index index = Md5Index.build(manifest, idx, 4)) {
+            Assert.assertEquals(LINES, index.size());
+            for (int i = 0; i < LINES; i++) {
+                Assert.assertEquals(MD5, index.md5(path(i)));
+            }
+            Assert.assertNull(index.md5("data/not-in-the-md5-manifest"));
+            Assert.assertEquals(1, index.assign(bag, 3));
+            Assert.assertEquals(3, index.bag(path(LINES - 1).getBytes(UTF_8)));
+        }
+    }
+
+    @Test
+    public void testHashCollision() throws IOException {
+        // two paths with the same 64 bit hash
+        String first = "data/32e5d07b5e04d39f";
+        String second = "data/ae032b94429291eb";
+        byte[] firstBytes = first.getBytes(UTF_8);
+        byte[] secondBytes = second.getBytes(UTF_8);
+        Assert.assertEquals(Md5Index.hash(firstBytes, 0, firstBytes.length),
+                Md5Index.hash(secondBytes, 0, secondBytes.length));
+
+        String other = "0cc175b9c0f1b6a831c399e269772661";
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(manifest, (MD5 + "  " + first + "\n").getBytes(UTF_8));
+        try (Md5Index index = Md5Index.build(manifest, folder.getRoot().toPath().resolve("idx"))) {
+            Assert.assertTrue(index.contains(first));
+            Assert.assertFalse(index.contains(second));
+            Assert.assertNull(index.md5(second));
+        }
+
+        Files.write(manifest, (MD5 + "  " + first + "\n" + other + "  " + second + "\n")
+                .getBytes(UTF_8));
+        Path bag = folder.newFile("bag").toPath();
+        Files.write(bag, (SHA + "  " + second + "\n").getBytes(UTF_8));
+        try (Md5Index index = Md5Index.build(manifest, folder.getRoot().toPath().resolve("idx2"))) {
+            Assert.assertEquals(2, index.size());
+            Assert.assertEquals(MD5, index.md5(first));
+            Assert.assertEquals(other, index.md5(second));
+            Assert.assertEquals(1, index.assign(bag, 2));
+            Assert.assertEquals(Md5Index.UNASSIGNED, index.bag(firstBytes));
+            Assert.assertEquals(2, index.bag(secondBytes));
+        }
+    }
+
+    @Test
+    public void testLineEndings() throws IOException {
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(manifest, (MD5 + " *data/one\r\n\ninvalid\n" + MD5 + "  data/two")
+                .getBytes(UTF_8));
+        Path files = folder.newFile("bag").toPath();
+        Files.write(files, (SHA + "  data/two\n" + SHA + "  data/one\n").getBytes(UTF_8));
+
+        try (Md5Index index = Md5Index.build(manifest, folder.getRoot().toPath().resolve("idx"))) {
+            Assert.assertEquals(2, index.size());
+            Md5Index.Selection selection = index.select(files);
+            try (InputStream is = selection.newInputStream()) {
+                Assert.assertEquals(MD5 + " *data/one\n" + MD5 + "  data/two\n",
+                        new String(ByteStreams.toByteArray(is), UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testAssignBags() throws IOException {
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(manifest, (MD5 + "  data/one\n" + MD5 + "  data/two\n").getBytes(UTF_8));
+        Path bag = folder.newFile("bag-1").toPath();
+        Files.write(bag, (SHA + "  data/two\n" + SHA + "  data/three\n").getBytes(UTF_8));
+
+        try (Md5Index index = Md5Index.build(manifest, folder.getRoot().toPath().resolve("idx"))) {
+            Assert.assertEquals(1, index.assign(bag, 1));
+            Assert.assertEquals(Md5Index.UNASSIGNED, index.bag("data/one".getBytes(UTF_8)));
+            Assert.assertEquals(1, index.bag("data/two".getBytes(UTF_8)));
+            Assert.assertEquals(Md5Index.NOT_INDEXED, index.bag("data/three".getBytes(UTF_8)));
+        }
+    }
+
+    @Test
+    public void testClosedIndex() throws IOException {
+        Path manifest = folder.newFile("manifest-md5.txt").toPath();
+        Files.write(manifest, (MD5 + "  data/one\n").getBytes(UTF_8));
+
+        Md5Index index = Md5Index.build(manifest, folder.getRoot().toPath().resolve("idx"));
+        Assert.assertTrue(index.contains("data/one"));
+        index.close();
+        // closing twice must not unmap the table again
+        index.close();
+
+        try {
+            index.contains("data/one");
+            Assert.fail("Lookups should fail once the index is closed");
+        } catch (IllegalStateException expected) {
+            // the table is no longer mapped
+        }
+    }
+
+}
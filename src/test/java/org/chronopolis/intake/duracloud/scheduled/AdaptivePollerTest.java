@@ -0,0 +1,61 @@
+package org.chronopolis.intake.duracloud.scheduled;
+
+import org.chronopolis.intake.duracloud.config.props.BridgeProperties;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+
+/**
+ * Tests for the interval calculation of the {@link AdaptivePoller}
+ *
+ * @author shake
+ */
+public class AdaptivePollerTest {
+
+    private final Duration min = Duration.ofMinutes(5);
+    private final Duration max = Duration.ofMinutes(80);
+    private final BridgeProperties.Adaptive adaptive = new BridgeProperties.Adaptive()
+            .setMin(min)
+            .setMax(max)
+            .setBackoff(2.0);
+
+    @Test
+    public void testIdleBackoff() {
+        AdaptivePoller.Schedule schedule = new AdaptivePoller.Schedule(min);
+
+        Assert.assertEquals(Duration.ofMinutes(10), schedule.next(0, adaptive));
+        Assert.assertEquals(Duration.ofMinutes(20), schedule.next(0, adaptive));
+        Assert.assertEquals(Duration.ofMinutes(40), schedule.next(0, adaptive));
+        Assert.assertEquals(max, schedule.next(0, adaptive));
+        Assert.assertEquals(max, schedule.next(0, adaptive));
+    }
+
+    @Test
+    public void testNewSnapshotsResetInterval() {
+        AdaptivePoller.Schedule schedule = new AdaptivePoller.Schedule(max);
+
+        Assert.assertEquals(min, schedule.next(2, adaptive));
+    }
+
+    @Test
+    public void testInFlightSpeedsUp() {
+        AdaptivePoller.Schedule schedule = new AdaptivePoller.Schedule(min);
+        schedule.next(0, adaptive);
+        schedule.next(0, adaptive);
+        schedule.next(0, adaptive);
+        Assert.assertEquals(min, schedule.next(1, adaptive));
+
+        // same number of snapshots in flight, the interval stays as short as possible
+        Assert.assertEquals(min, schedule.next(1, adaptive));
+    }
+
+    @Test
+    public void testIncompletePollKeepsInterval() {
+        AdaptivePoller.Schedule schedule = new AdaptivePoller.Schedule(min);
+        Duration interval = schedule.next(0, adaptive);
+
+        Assert.assertEquals(interval, schedule.next(null, adaptive));
+    }
+
+}
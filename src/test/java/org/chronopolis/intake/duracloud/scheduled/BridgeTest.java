@@ -0,0 +1,186 @@
+package org.chronopolis.intake.duracloud.scheduled;
+
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.batch.SnapshotJobManager;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.BridgeProperties;
+import org.chronopolis.intake.duracloud.config.props.Push;
+import org.chronopolis.intake.duracloud.remote.BridgeAPI;
+import org.chronopolis.intake.duracloud.remote.model.HistoryItem;
+import org.chronopolis.intake.duracloud.remote.model.Snapshot;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotDetails;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotHistory;
+import org.chronopolis.intake.duracloud.remote.model.SnapshotStatus;
+import org.chronopolis.intake.duracloud.remote.model.Snapshots;
+import org.chronopolis.test.support.CallWrapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.Callback;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Paths;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link Bridge}
+ *
+ * @author shake
+ */
+public class BridgeTest {
+
+    private static final String STAGED = "test-snapshot";
+    private static final String FAILED = "empty-snapshot";
+
+    private final String empty = "";
+    private final BridgeAPI failing = mock(BridgeAPI.class);
+    private final BridgeAPI working = mock(BridgeAPI.class);
+    private final SnapshotJobManager manager = mock(SnapshotJobManager.class);
+
+    private Bridge bridge;
+    private String snapshots;
+
+    @Before
+    public void setup() throws URISyntaxException {
+        URL resources = ClassLoader.getSystemClassLoader().getResource("");
+        Assert.assertNotNull(resources);
+        snapshots = Paths.get(resources.toURI()).resolve("snapshots").toString();
+
+        BridgeContext failingContext =
+                new BridgeContext(failing, empty, empty, empty, empty, Push.NONE, "failing");
+        BridgeContext workingContext =
+                new BridgeContext(working, empty, empty, empty, empty, Push.NONE, "working");
+
+        bridge = new Bridge(manager, new BridgeProperties(),
+                ImmutableList.of(failingContext, workingContext));
+    }
+
+    @After
+    public void teardown() {
+        bridge.destroy();
+    }
+
+    /**
+     * Test that an error from one bridge does not prevent the other bridges from being polled
+     */
+    @Test
+    public void testFailureIsIsolated() {
+        Snapshots snapshots = new Snapshots().setSnapshots(ImmutableList.of());
+
+        when(failing.getSnapshots(any(), eq(SnapshotStatus.REPLICATING_TO_STORAGE)))
+                .thenThrow(new RuntimeException("bridge-down"));
+        when(working.getSnapshots(any(), eq(SnapshotStatus.REPLICATING_TO_STORAGE)))
+                .thenReturn(new CallWrapper<>(snapshots));
+
+        bridge.findSnapshots();
+
+        verify(failing, times(1)).getSnapshots(any(), eq(SnapshotStatus.REPLICATING_TO_STORAGE));
+        verify(working, times(1)).getSnapshots(any(), eq(SnapshotStatus.REPLICATING_TO_STORAGE));
+    }
+
+    /**
+     * Test that a snapshot whose lookup fails is skipped while the other snapshots from the same
+     * poll are still handed off
+     */
+    @Test
+    public void testAsyncLookupFailure() {
+        BridgeContext context = useBridge(new BridgeProperties()
+                .setAsync(new BridgeProperties.Async().setEnabled(true).setConcurrency(2)));
+        when(working.getSnapshots(any(), eq(SnapshotStatus.REPLICATING_TO_STORAGE)))
+                .thenReturn(new CallWrapper<>(new Snapshots().setSnapshots(ImmutableList.of(
+                        new Snapshot().setSnapshotId(FAILED),
+                        new Snapshot().setSnapshotId(STAGED)))));
+        when(working.getSnapshotHistory(eq(FAILED), anyMap())).thenReturn(failingCall());
+        when(working.getSnapshotDetails(FAILED))
+                .thenReturn(new CallWrapper<>(new SnapshotDetails()));
+        when(working.getSnapshotHistory(eq(STAGED), anyMap()))
+                .thenAnswer(invocation -> new CallWrapper<>(stagedHistory()));
+        when(working.getSnapshotDetails(STAGED))
+                .thenAnswer(invocation -> new CallWrapper<>(new SnapshotDetails()));
+        when(manager.bagSnapshot(any(), any(), eq(context))).thenReturn(true);
+
+        bridge.findSnapshots();
+
+        verify(manager, times(1)).bagSnapshot(
+                argThat(data -> STAGED.equals(data.snapshotId())), any(), eq(context));
+        verify(manager, never()).bagSnapshot(
+                argThat(data -> FAILED.equals(data.snapshotId())), any(), any());
+    }
+
+    /**
+     * Test that when only the latest history is read, a snapshot which is unchanged between two
+     * polls is dispatched again without looking up its details a second time
+     */
+    @Test
+    public void testLatestHistoryUnchanged() {
+        BridgeContext context = useBridge(new BridgeProperties()
+                .setHistory(BridgeProperties.HistoryMode.LATEST));
+        when(working.getSnapshots(any(), eq(SnapshotStatus.REPLICATING_TO_STORAGE)))
+                .thenAnswer(invocation -> new CallWrapper<>(new Snapshots().setSnapshots(
+                        ImmutableList.of(new Snapshot().setSnapshotId(STAGED)))));
+        when(working.getSnapshotHistory(eq(STAGED), anyMap()))
+                .thenAnswer(invocation -> new CallWrapper<>(stagedHistory()));
+        when(working.getSnapshotDetails(STAGED))
+                .thenAnswer(invocation -> new CallWrapper<>(new SnapshotDetails()));
+        when(manager.bagSnapshot(any(), any(), eq(context))).thenReturn(true);
+
+        bridge.findSnapshots();
+        bridge.findSnapshots();
+
+        verify(working, times(2)).getSnapshotHistory(eq(STAGED), anyMap());
+        verify(working, times(1)).getSnapshotDetails(STAGED);
+        verify(manager, times(2)).bagSnapshot(
+                argThat(data -> STAGED.equals(data.snapshotId())), any(), eq(context));
+    }
+
+    /**
+     * Replace the Bridge from the setup with one which polls a single bridge with snapshots on
+     * disk
+     *
+     * @param properties the {@link BridgeProperties} for the Bridge
+     * @return the {@link BridgeContext} being polled
+     */
+    private BridgeContext useBridge(BridgeProperties properties) {
+        BridgeContext context = new BridgeContext(working, empty, empty,
+                snapshots, snapshots, Push.NONE, "working");
+        bridge.destroy();
+        bridge = new Bridge(manager, properties, ImmutableList.of(context));
+        return context;
+    }
+
+    private SnapshotHistory stagedHistory() {
+        HistoryItem item = new HistoryItem()
+                .setHistoryDate(1L)
+                .setHistory("[{'snapshot-action':'SNAPSHOT_STAGED'},{'snapshot-id':'"
+                        + STAGED + "'}]");
+        return new SnapshotHistory()
+                .setTotalCount(1L)
+                .setHistoryItems(ImmutableList.of(item));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E> Call<E> failingCall() {
+        Call<E> call = mock(Call.class);
+        doAnswer(invocation -> {
+            Callback<E> callback = invocation.getArgument(0);
+            callback.onFailure(call, new IOException("bridge-down"));
+            return null;
+        }).when(call).enqueue(any());
+        return call;
+    }
+
+}
@@ -0,0 +1,126 @@
+package org.chronopolis.intake.duracloud.webhook;
+
+import com.google.common.collect.ImmutableList;
+import org.chronopolis.intake.duracloud.config.BridgeContext;
+import org.chronopolis.intake.duracloud.config.props.BridgeProperties;
+import org.chronopolis.intake.duracloud.config.props.Push;
+import org.chronopolis.intake.duracloud.remote.BridgeAPI;
+import org.chronopolis.intake.duracloud.remote.model.Snapshot;
+import org.chronopolis.intake.duracloud.scheduled.Bridge;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link SnapshotWebhook}
+ *
+ * @author shake
+ */
+public class SnapshotWebhookTest {
+
+    private final String empty = "";
+    private final String name = "bridge-test";
+    private final String secret = "test-secret";
+    private final Bridge bridge = mock(Bridge.class);
+    private final BridgeContext context = new BridgeContext(mock(BridgeAPI.class),
+            empty, empty, empty, empty, Push.NONE, name);
+
+    private SnapshotWebhook webhook;
+
+    @Before
+    public void setup() throws IOException {
+        BridgeProperties properties = new BridgeProperties();
+        properties.getWebhook().setPort(0);
+        properties.getWebhook().getSecrets().put(name, secret);
+
+        webhook = new SnapshotWebhook(bridge, properties, ImmutableList.of(context));
+        webhook.start();
+    }
+
+    @After
+    public void teardown() {
+        webhook.stop();
+    }
+
+    @Test
+    public void testStagedEvent() throws IOException {
+        int code = post("/bridge/" + name + "/snapshot",
+                "{\"snapshotId\": \"test-snapshot\", \"snapshotAction\": \"SNAPSHOT_STAGED\"}");
+
+        Assert.assertEquals(202, code);
+        verify(bridge, timeout(5000)).processSnapshot(eq(context),
+                argThat((Snapshot s) -> "test-snapshot".equals(s.getSnapshotId())));
+    }
+
+    @Test
+    public void testIgnoredStatus() throws IOException {
+        int code = post("/bridge/" + name + "/snapshot",
+                "{\"snapshotId\": \"test-snapshot\", \"status\": \"CLEANING_UP\"}");
+
+        Assert.assertEquals(204, code);
+        verify(bridge, never()).processSnapshot(any(), any(Snapshot.class));
+    }
+
+    @Test
+    public void testUnknownBridge() throws IOException {
+        int code = post("/bridge/not-a-bridge/snapshot", "{\"snapshotId\": \"test-snapshot\"}");
+
+        Assert.assertEquals(404, code);
+        verify(bridge, never()).processSnapshot(any(), any(Snapshot.class));
+    }
+
+    @Test
+    public void testUnauthenticated() throws IOException {
+        String event = "{\"snapshotId\": \"test-snapshot\"}";
+
+        Assert.assertEquals(401, post("/bridge/" + name + "/snapshot", event, null));
+        Assert.assertEquals(401, post("/bridge/" + name + "/snapshot", event, "wrong-secret"));
+        verify(bridge, never()).processSnapshot(any(), any(Snapshot.class));
+    }
+
+    @Test
+    public void testMissingSnapshotId() throws IOException {
+        int code = post("/bridge/" + name + "/snapshot", "{}");
+
+        Assert.assertEquals(400, code);
+        verify(bridge, never()).processSnapshot(any(), any(Snapshot.class));
+    }
+
+    private int post(String path, String body) throws IOException {
+        return post(path, body, secret);
+    }
+
+    private int post(String path, String body, String header) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + webhook.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        if (header != null) {
+            connection.setRequestProperty("X-Bridge-Secret", header);
+        }
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int code = connection.getResponseCode();
+        connection.disconnect();
+        return code;
+    }
+
+}